@@ -1,15 +1,18 @@
 package isel.leic.pg;
 
+import isel.leic.pg.console.AnsiBackend;
+import isel.leic.pg.console.Backend;
 import isel.leic.pg.console.Frame;
+import isel.leic.pg.console.HeadlessBackend;
+import isel.leic.pg.console.Metrics;
+import isel.leic.pg.sound.LineSink;
+import isel.leic.pg.sound.MusicStream;
+import isel.leic.pg.sound.SoftMixer;
+import isel.leic.pg.sound.Sound;
+import isel.leic.pg.sound.SoundBank;
 
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
-import javax.sound.sampled.UnsupportedAudioFileException;
-import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyEvent;
-import java.io.*;
 import java.security.InvalidParameterException;
 
 /**
@@ -46,6 +49,12 @@ public abstract class Console {
 	public static final int BLACK=0, WHITE=1, RED=2, GREEN=3, BLUE=4, YELLOW=5, MAGENTA=6, ORANGE=7, CYAN=8, 
 	    PINK=9, BROWN=10, DARK_GRAY=11, GRAY=12, LIGHT_GRAY=13, MAX_COLORS=14;
 	
+	/**
+	 * Policies to use calling {@link #pollPolicy(int)}
+	 */
+	public static final int POLL_NON_BLOCKING = Backend.POLL_NON_BLOCKING, POLL_ADAPTIVE = Backend.POLL_ADAPTIVE,
+		POLL_EVENT = Backend.POLL_EVENT;
+
 	private static final int DEFAULT_LINES = 25, DEFAULT_COLS = 40, MAX_LINES=60, MAX_COLS=100;
 	private static final int DEFAULT_FONTSIZE = 18;
 
@@ -67,7 +76,8 @@ public abstract class Console {
 	private static int fontSize = DEFAULT_FONTSIZE;
 	private static float widthFactor = 1.0F;
 	private static float heightFactor = 1.0F;
-	private static Frame frame = null;
+	private static Backend frame = null;
+	private static KeySnapshot keys = null;
 
     /**
      * Construction of <code>Console</code> objects is not allowed.<br>
@@ -101,7 +111,38 @@ public abstract class Console {
 			throw new InvalidParameterException();
 		Console.lines = lines;
 		Console.cols = cols;
-	    frame = new Frame(title, lines, cols, fontSize, heightFactor, widthFactor);
+		String kind = System.getProperty(BACKEND_PROPERTY, "");
+		if (!kind.equals("ansi") && !kind.equals("headless") && GraphicsEnvironment.isHeadless())
+			throw new HeadlessException("No graphics environment: use -D" + BACKEND_PROPERTY + "=headless or ansi");
+	    frame = kind.equals("ansi") ? new AnsiBackend(lines, cols)
+				: kind.equals("headless") ? new HeadlessBackend(lines, cols)
+				: new Frame(title, lines, cols, fontSize, heightFactor, widthFactor);
+	    keys = new KeySnapshot();
+		if (Boolean.getBoolean(METRICS_PROPERTY)) metrics(true);
+	}
+
+	/**
+	 * System property that selects the backend used by {@link #open(String, int, int)}:
+	 * "ansi" for the text terminal, "headless" for memory only, or the window by default.
+	 */
+	public static final String BACKEND_PROPERTY = "console.backend";
+
+	/**
+	 * Opens the console in the backend indicated, instead of a window.
+	 * <p>The backend may also be selected with the property {@link #BACKEND_PROPERTY}. Without it and without
+	 * a graphics environment (<code>java.awt.headless=true</code>), {@link #open(String, int, int)} throws
+	 * <code>HeadlessException</code>.</p>
+	 * In the end, close the console by calling close() method.
+	 * @param backend The device of the console, already created with its lines and columns
+	 * @see #close()
+	 */
+	public static void open(Backend backend) {
+		if (frame!=null) close();
+		Console.lines = backend.getLines();
+		Console.cols = backend.getCols();
+		frame = backend;
+		keys = new KeySnapshot();
+		if (Boolean.getBoolean(METRICS_PROPERTY)) metrics(true);
 	}
 	private static void check() { if (frame==null) open(DEFAULT_LINES, DEFAULT_COLS); }
 	
@@ -121,6 +162,57 @@ public abstract class Console {
 	 */
 	public static void print(char c)   { check(); frame.put(c); }
 	
+	/**
+	 * Write a sequence of chars into the console at the current position of the cursor and the current colors.
+	 * <p>The sequence is written at once, with only one update of the window.</p>
+	 * @param s Chars to write
+	 * @see #print(String)
+	 */
+	public static void print(CharSequence s) { check(); frame.put(s); }
+
+	/**
+	 * Write an array of chars into the console at the current position of the cursor and the current colors.
+	 * <p>The array is written at once, with only one update of the window.</p>
+	 * @param cs Chars to write
+	 * @see #print(String)
+	 */
+	public static void print(char[] cs) { check(); frame.put(cs, 0, cs.length); }
+
+	/**
+	 * Write a rectangular block of chars with the upper left corner at the indicated position.
+	 * <p>The block is written at once, with only one update of the window.
+	 * The cursor position and the current colors are not changed.
+	 * The chars outside the console are ignored.</p>
+	 * @param lin Line of the upper left corner
+	 * @param col Column of the upper left corner
+	 * @param block Lines of chars to write
+	 * @param foreground Writing color of each char, or <code>null</code> to use the current color
+	 * @param background Background color of each char, or <code>null</code> to use the current color
+	 * @see #fill(int, int, int, int, char, int, int)
+	 */
+	public static void printBlock(int lin, int col, char[][] block, int[][] foreground, int[][] background) {
+		check();
+		frame.putBlock(lin, col, block, foreground, background, colors);
+	}
+
+	/**
+	 * Fills a rectangle of the console with the same char and colors.
+	 * <p>The rectangle is written at once, with only one update of the window.
+	 * The cursor position and the current colors are not changed.</p>
+	 * @param lin Line of the upper left corner
+	 * @param col Column of the upper left corner
+	 * @param height Number of lines
+	 * @param width Number of columns
+	 * @param c Char to write in each cell
+	 * @param foreground Writing color
+	 * @param background Background color
+	 * @see #printBlock(int, int, char[][], int[][], int[][])
+	 */
+	public static void fill(int lin, int col, int height, int width, char c, int foreground, int background) {
+		check();
+		frame.fill(lin, col, height, width, c, colors[background % colors.length], colors[foreground % colors.length]);
+	}
+
 	/**
 	 * Write a integer value in base 10 <p>
 	 * Call <code>print(n)</code> is the same as <code>print(""+n)</code>
@@ -234,21 +326,115 @@ public abstract class Console {
 	
 	/**
 	 * Clears the content of the console, writing spaces with current colors.
+	 * The cursor is moved to the position (0,0).
+	 */
+	public static void clear() { check(); frame.clear(); }
+
+	/**
+	 * Starts a frame of writes.
+	 * <p>The writes made until {@link #endFrame()} are not visible, so the window never shows
+	 * a partially updated screen. Useful to avoid the flicker in animations.</p>
+	 * <p><b>Example:</b><br>
+	 * <code>
+	 * Console.beginFrame();<br>
+	 * Console.clear();<br>
+	 * drawScene();<br>
+	 * Console.endFrame();<br>
+	 * </code></p>
+	 * @see #endFrame()
+	 */
+	public static void beginFrame() { check(); frame.beginFrame(); }
+
+	/**
+	 * Ends the frame of writes started by {@link #beginFrame()}, showing all the changes at once.
+	 * @see #beginFrame()
 	 */
-	public static void clear() {
-		frame.cursor(0,0);
-		for(int i=0 ; i<lines*cols ; ++i)
-			frame.put(' ');
+	public static void endFrame() { check(); frame.endFrame(); }
+
+	/**
+	 * Turns on or off the scroll at the end of the console.
+	 * <p>When on, writing past the last line moves all lines up, instead of continuing in the first line.
+	 * Only the new line is painted; the others are moved in the screen.</p>
+	 * @param on true to scroll up at the end of the last line
+	 */
+	public static void scroll(boolean on) { check(); frame.setScroll(on); }
+
+	/**
+	 * Moves the lines of a region of the console n lines up (n&gt;0) or down (n&lt;0).
+	 * The lines exposed are filled with spaces in the current colors.
+	 * @param lin the first line of the region
+	 * @param height number of lines of the region
+	 * @param n number of lines to move
+	 */
+	public static void scroll(int lin, int height, int n) { check(); frame.scroll(lin, height, n); }
+
+	/**
+	 * Keeps the last lines that scroll off the top of the console, to be viewed with {@link #viewScrollback(int)}.
+	 * @param lines maximum number of lines kept, or 0 to keep none
+	 */
+	public static void scrollback(int lines) { check(); frame.setScrollback(lines); }
+
+	/**
+	 * Moves the view of the console down, showing the last lines of the scrollback at the top.
+	 * <p>While the view is moved, the writes are not visible. They are shown when the view returns to 0.
+	 * Inside a frame, the view changes only in {@link #endFrame()}.</p>
+	 * @param offset number of lines of the scrollback to show, or 0 to show the console
+	 * @return the offset applied, limited to the lines kept
+	 * @see #scrollback(int)
+	 */
+	public static int viewScrollback(int offset) { check(); return frame.viewScrollback(offset); }
+
+	/**
+	 * Number of lines kept in the scrollback.
+	 */
+	public static int scrollbackSize() { check(); return frame.getScrollbackSize(); }
+
+	/**
+	 * Number of repaint requests avoided since the console was opened,
+	 * by merging the characters changed in each write.
+	 * @return The number of repaint requests saved
+	 */
+	public static long repaintsSaved() { check(); return frame.getRepaintsSaved(); }
+
+	/**
+	 * System property that, if "true", turns on the metrics when the console opens.
+	 * @see #metrics(boolean)
+	 */
+	public static final String METRICS_PROPERTY = "console.metrics";
+
+	/**
+	 * Turns on or off the measure of the paint times and the publication of the metrics in JMX,
+	 * as the MBean "isel.leic.pg:type=Console".
+	 * <p>The counters of repaints, cells changed and input lost are always kept.</p>
+	 * @param on true to measure and publish the metrics
+	 * @see #stats()
+	 */
+	public static void metrics(boolean on) {
+		check();
+		Metrics m = frame.getMetrics();
+		m.setEnabled(on);
+		if (on) m.register();
+		else m.unregister();
 	}
 
 	/**
-	 * Close the console
+	 * Returns the metrics of the console captured now: repaints, cells changed, paint times
+	 * (only if the metrics are on) and typed chars and mouse events lost.
+	 * @return the snapshot of the metrics
+	 * @see #metrics(boolean)
+	 */
+	public static Metrics.Stats stats() { check(); return frame.getMetrics().stats(); }
+
+	/**
+	 * Close the console, and stops the sounds and the music
 	 * @see #open(int lines, int cols)
 	 * @see #open(String, int, int)
 	 */
 	public static void close() {
-	   frame.dispose();
+	   frame.getMetrics().unregister();
+	   frame.close();
 	   frame = null;
+	   closeSounds();
 	}
 	
 	/**
@@ -285,15 +471,26 @@ public abstract class Console {
 	 * @return The key pressed or NO_CHAR ((char) 0) if no key was pressed in the timeout
 	 */
 	public static char waitChar(long timeout) {
-        //while( getChar()!=NO_CHAR ) ;
   		if (timeout<0) timeout = 0;
-		if (timeout>0) timeout += System.currentTimeMillis();
-		char c;
-		while( (c=getChar())==NO_CHAR && (timeout<=0 || System.currentTimeMillis() < timeout ))
-			;
-		return c;
+		try {
+			return frame.waitChar(timeout);
+		} catch (InterruptedException e) {
+			return NO_CHAR;
+		}
 	}
 	
+	/**
+	 * Defines what {@link #getChar()}, {@link #getKeyPressed()} and {@link #getMouseEvent()} do
+	 * when there is no input available.<p>
+	 * - POLL_NON_BLOCKING returns immediately. Best for loops that already control their time.<p>
+	 * - POLL_ADAPTIVE (default) waits 1 ms more for each consecutive call without input, up to 10 ms,
+	 * to limit the CPU usage of loops that only read the input.<p>
+	 * - POLL_EVENT waits up to 10 ms.<p>
+	 * In any policy the wait ends as soon as there is input, and a call that finds input never waits.
+	 * @param policy POLL_NON_BLOCKING, POLL_ADAPTIVE or POLL_EVENT
+	 */
+	public static void pollPolicy(int policy) { check(); frame.setPollPolicy(policy); }
+
 	/**
 	 * Checks whether a specific key is pressed.
 	 * It may be more than one key pressed at the same time.
@@ -304,6 +501,21 @@ public abstract class Console {
 	 */
 	public static boolean isKeyPressed(int code) { return frame.keyPressed(code); }
 	
+	/**
+	 * Captures the state of all the keys at once.<p>
+	 * Reading the keys from the snapshot is consistent and much faster than calling
+	 * {@link #isKeyPressed(int)} for each key. The snapshot also indicates which keys
+	 * were pressed or released since the previous call.<p>
+	 * The object returned is always the same, updated in each call.
+	 * @return The state of the keys
+	 * @see KeySnapshot
+	 */
+	public static KeySnapshot keySnapshot() {
+		check();
+		frame.copyPressedKeys(keys.next());
+		return keys;
+	}
+
 	/**
 	 * Checks if any key is pressed.
 	 * This method also checks action keys (Cursor arrows, Home, etc.).
@@ -336,11 +548,11 @@ public abstract class Console {
 	 */
 	public static int waitKeyPressed(long timeout) {
 		if (timeout<0) timeout = 0;
-		if (timeout>0) timeout += System.currentTimeMillis();
-		int k;
-		while( (k=frame.getKeyPressed())==NO_KEY && (timeout<=0 || System.currentTimeMillis() < timeout ))
-            ;
-		return k;
+		try {
+			return frame.waitKeyPressed(timeout);
+		} catch (InterruptedException e) {
+			return NO_KEY;
+		}
 	}
 
     /**
@@ -378,7 +590,19 @@ public abstract class Console {
 	 * @see #waitKeyPressed(long)
 	 * @see #getKeyPressed()
 	 */
-	public static void enableMouseEvents(boolean drag) { frame.enableMouseEvents(drag); }
+	public static void enableMouseEvents(boolean drag) { frame.enableMouseEvents(drag,false); }
+
+	/**
+	 * Turn on the mechanism to read mouse events, including the mouse moves.<p>
+	 * The mouse moves (<code>MouseEvent.MOVE</code>) are reported only when the mouse enters another cell,
+	 * and while they are not read only the newest move is kept.
+	 * The other mouse events are never lost because of the moves.
+	 * @param drag True to enable also the mouse drags
+	 * @param move True to enable also the mouse moves
+	 * @see #enableMouseEvents(boolean)
+	 * @see #getMouseEvent()
+	 */
+	public static void enableMouseEvents(boolean drag, boolean move) { frame.enableMouseEvents(drag,move); }
 
 	/**
 	 * Turn off the mechanism to read mouse events.<p>
@@ -399,7 +623,16 @@ public abstract class Console {
 	 * @see #waitKeyPressed(long)
 	 * @see #getKeyPressed()
 	 */
-	public static MouseEvent getMouseEvent() { return frame.getMouseEvent(); }
+	public static MouseEvent getMouseEvent() { return frame.pollMouse(null); }
+
+	/**
+	 * Same as {@link #getMouseEvent()}, but stores the event information in the object indicated.<p>
+	 * Does not allocate objects, so it is better for loops that read many mouse events (ex: drags).
+	 * @param reuse The object where the event is stored
+	 * @return <code>reuse</code> with the event information or <code>null</code> if no events.
+	 * @see #getMouseEvent()
+	 */
+	public static MouseEvent pollMouse(MouseEvent reuse) { return frame.pollMouse(reuse); }
 
     /**
      * Returns the position of the last mouse click.<p>
@@ -477,7 +710,7 @@ public abstract class Console {
 	 *                <code>false</code> to ignore the close button. 
 	 */
 	public static void exit(boolean on) {
-		frame.setDefaultCloseOperation(on ? JFrame.EXIT_ON_CLOSE : JFrame.DO_NOTHING_ON_CLOSE);
+		frame.setExitOnClose(on);
 	}
 
     /**
@@ -522,73 +755,179 @@ public abstract class Console {
         return key;
 	}
 
-    private static Clip getClip(String wavFile) {
-        String soundName = "sound\\"+wavFile;
-		if (soundName.indexOf('.')==-1)
-			soundName += ".wav";
-        InputStream sound = null;
-        Clip clip = null;
+    private static volatile GameLoop loop = null;
+
+    /**
+     * Runs the loop of a game, calling update at a fixed rate and render once per frame,
+     * until {@link #stopLoop()} is called (usually by update).
+     * <p>The times are measured with System.nanoTime and the wait for each frame ends precisely
+     * at the deadline. If the updates are late they are called again to catch up, without render;
+     * if they are too late, the time missed is dropped.
+     * The render is made between {@link #beginFrame()} and {@link #endFrame()}.</p>
+     * <p><b>Example:</b><br>
+     * <code>
+     * Console.runLoop(30, game::step, game::draw);<br>
+     * </code></p>
+     * @param targetFps Number of updates and frames per second
+     * @param update Changes the state of the game by one step (1/targetFps seconds)
+     * @param render Writes the state of the game in the console
+     * @return the measures of the loop
+     * @see #stopLoop()
+     * @see #loopStats()
+     */
+    public static GameLoop.Stats runLoop(int targetFps, Runnable update, Runnable render) {
+        check();
+        GameLoop l = new GameLoop(targetFps);
+        loop = l;
         try {
-            sound = new BufferedInputStream(new FileInputStream(soundName));
-        } catch (FileNotFoundException ex) {
-            sound = ClassLoader.getSystemResourceAsStream(soundName);
-            if (sound==null) {
-                System.out.println("Cant open file " + soundName);
-                return null;
-            }
+            l.run(update, render);
+        } finally {
+            if (loop==l) loop = null;
         }
-        try {
-            AudioInputStream audioIn = AudioSystem.getAudioInputStream(sound);
-            clip = AudioSystem.getClip();
-            clip.open(audioIn);
-        } catch (Exception ex) {
-            System.out.println("Error in sound " + wavFile);
-            System.out.println(ex.getMessage());
-            if (clip!=null) {
-                clip.close();
-                return null;
+        return l.stats();
+    }
+
+    /**
+     * Ends the loop started by {@link #runLoop(int, Runnable, Runnable)}, after the current update or render.
+     */
+    public static void stopLoop() {
+        GameLoop l = loop;
+        if (l!=null) l.stop();
+    }
+
+    /**
+     * Measures of the loop running: frames, updates skipped, frame time and fraction of the frame time used.
+     * @return the measures or null if no loop is running
+     * @see #runLoop(int, Runnable, Runnable)
+     */
+    public static GameLoop.Stats loopStats() {
+        GameLoop l = loop;
+        return l==null ? null : l.stats();
+    }
+
+    private static SoundBank sounds = null;
+
+    private static synchronized SoundBank sounds() {
+        if (sounds==null) sounds = new SoundBank();
+        return sounds;
+    }
+
+    /**
+     * Loads a sound stored in a ".wav" file, to be played later without delay.
+     * The file should be in a folder named "sound" placed at the base folder of execution.
+     * @param wavFile File name without the extension ".wav"
+     * @return true if the sound was loaded
+     * @see #playSound(String)
+     */
+    public static boolean loadSound(String wavFile) {
+        Sound s = sounds().load(wavFile);
+        SoftMixer m = mixer;
+        if (s != null && m != null) {
+            try {
+                m.load(s);
+            } catch (IllegalArgumentException ex) {     // Played by the clips of the bank
+                System.out.println("Error in sound mixer");
+                System.out.println(ex.getMessage());
             }
-            try { sound.close(); } catch (IOException e) {}
         }
-        return clip;
+        return s != null;
     }
 
     /**
      * Play a sound stored in a ".wav" file.
      * The file should be in a folder named "sound" placed at the base folder of execution.
+     * <p>The sound is loaded in the first call, if it was not loaded by {@link #loadSound(String)}.
+     * The same sound may be played up to 4 times simultaneously; after that, the oldest play restarts.</p>
      * @param wavFile File name without the extension ".wav"
      */
     public static void playSound(String wavFile) {
-        Clip clip = getClip(wavFile);
-        if (clip!=null)
-            clip.start();
+        SoftMixer m = mixer;
+        if (m == null) {
+            sounds().play(wavFile);
+            return;
+        }
+        Sound s = sounds().load(wavFile);
+        if (s == null) return;
+        try {
+            m.play(s);
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Error in sound mixer");
+            System.out.println(ex.getMessage());
+            sounds().play(wavFile);
+        }
     }
 
-    private static Clip music = null;
+    /**
+     * Stops the music and the mixer and closes the clips of the sounds loaded.
+     */
+    private static synchronized void closeSounds() {
+        stopMusic();
+        soundMixer(0);
+        if (sounds != null) {
+            sounds.close();
+            sounds = null;
+        }
+    }
+
+    private static volatile SoftMixer mixer = null;
+
+    /**
+     * Plays the sounds mixed in the process to only one audio line, instead of one clip for each play.
+     * <p>A small buffer reduces the latency of {@link #playSound(String)}, but may cause gaps if the mix is late.</p>
+     * @param bufferMillis size of the audio buffer in milliseconds, or 0 to stop using the mixer
+     * @return true if the mixer is in use
+     * @see #soundLatency()
+     */
+    public static synchronized boolean soundMixer(int bufferMillis) {
+        if (mixer != null) {
+            mixer.stop();
+            mixer = null;
+        }
+        if (bufferMillis <= 0) return false;
+        SoftMixer m = new SoftMixer();
+        try {
+            m.start(new LineSink(), bufferMillis);
+        } catch (Exception ex) {
+            System.out.println("Error in sound mixer");
+            System.out.println(ex.getMessage());
+            return false;
+        }
+        mixer = m;
+        return true;
+    }
+
+    /**
+     * Average latency of the sounds played by the mixer, from the call of {@link #playSound(String)}
+     * to the output of the first sample.
+     * @return the latency in milliseconds, or 0 if the mixer is not in use
+     * @see #soundMixer(int)
+     */
+    public static double soundLatency() {
+        SoftMixer m = mixer;
+        return m == null ? 0 : m.getAverageLatencyMillis();
+    }
+
+    private static MusicStream music = null;
 
     /**
      * Starts to play the music stored in a ".wav" file.
      * The file should be in a folder named "sound" placed at the base folder of execution.
+     * <p>The music is decoded while it plays, so the memory used does not depend on its length.</p>
      * @param wavFile File name without the extension ".wav"
      * @see #stopMusic()
      */
-    public static void startMusic(String wavFile) {
+    public static synchronized void startMusic(String wavFile) {
         stopMusic();
-        music = getClip(wavFile);
-        if (music!=null) {
-            music.loop(Clip.LOOP_CONTINUOUSLY);
-            music.start();
-        }
+        music = MusicStream.start(wavFile, true);
     }
 
     /**
      * Stops to play the music started by <code>startMusic()</code>
      * @see #startMusic(String)
      */
-    public static void stopMusic() {
+    public static synchronized void stopMusic() {
         if (music==null) return;
         music.stop();
-        music.close();
         music = null;
     }
 
@@ -0,0 +1,141 @@
+package isel.leic.pg;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Loop of a game with a fixed time step, used by {@link Console#runLoop(int, Runnable, Runnable)}.
+ * <p>The update is called at a fixed rate (targetFps times per second). If the updates are late,
+ * they are called again without render to catch up, up to {@link #MAX_UPDATES} per frame;
+ * after that, the time missed is dropped (frame skip).
+ * The render is called once per frame, inside a Console frame (beginFrame/endFrame).</p>
+ * <p>The wait until the next frame sleeps most of the time and spins only in the last
+ * {@link #SPIN_NANOS}, to reach the deadline with the precision of System.nanoTime.</p>
+ */
+public class GameLoop {
+    /**
+     * Maximum number of updates in one frame, to catch up with the time.
+     */
+    public static final int MAX_UPDATES = 5;
+
+    /**
+     * Time before the deadline where the wait stops sleeping and starts spinning.
+     */
+    public static final long SPIN_NANOS = 2_000_000;
+
+    /**
+     * Measures of the loop, returned by {@link Console#loopStats()}.
+     */
+    public static class Stats {
+        /** Number of frames rendered */
+        public final long frames;
+        /** Number of updates, including the updates to catch up */
+        public final long updates;
+        /** Number of updates not made because the loop was too late */
+        public final long skipped;
+        /** Average time between frames, in milliseconds */
+        public final double frameMillis;
+        /** Longest time between frames, in milliseconds */
+        public final double maxFrameMillis;
+        /** Average fraction of the frame time used by update and render (greater than 1 if overloaded) */
+        public final double budgetUsed;
+
+        Stats(long frames, long updates, long skipped, double frameMillis, double maxFrameMillis, double budgetUsed) {
+            this.frames = frames;
+            this.updates = updates;
+            this.skipped = skipped;
+            this.frameMillis = frameMillis;
+            this.maxFrameMillis = maxFrameMillis;
+            this.budgetUsed = budgetUsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("frames=%d updates=%d skipped=%d frame=%.2fms max=%.2fms budget=%.0f%%",
+                    frames, updates, skipped, frameMillis, maxFrameMillis, budgetUsed*100);
+        }
+    }
+
+    private final long period;              // Nanoseconds per update
+    private volatile boolean running = false;
+
+    // Measures, written by the loop thread
+    private volatile long frames, updates, skipped;
+    private volatile long frameSum, frameMax, busySum;
+
+    /**
+     * @param targetFps number of updates and frames per second
+     */
+    public GameLoop(int targetFps) {
+        if (targetFps <= 0) throw new IllegalArgumentException("targetFps <= 0");
+        period = 1_000_000_000L / targetFps;
+    }
+
+    /**
+     * Runs the loop in the current thread, until {@link #stop()} is called.
+     * @param update changes the state of the game by one time step
+     * @param render writes the state of the game in the console
+     */
+    public void run(Runnable update, Runnable render) {
+        running = true;
+        long next = System.nanoTime();      // Time of the next update
+        long lastFrame = next;
+        while (running) {
+            long start = System.nanoTime();
+            int n = 0;
+            while (start - next >= 0 && n < MAX_UPDATES && running) {
+                update.run();
+                next += period;
+                ++n;
+            }
+            updates += n;
+            if (start - next >= 0) {        // Still late: drop the time missed
+                long missed = (start - next) / period + 1;
+                skipped += missed;
+                next += missed * period;
+            }
+            if (!running) break;
+            Console.beginFrame();
+            try { render.run(); }
+            finally { Console.endFrame(); }
+            long end = System.nanoTime();
+            long frame = end - lastFrame;
+            lastFrame = end;
+            if (frames > 0) {               // The first frame has no previous
+                frameSum += frame;
+                if (frame > frameMax) frameMax = frame;
+            }
+            busySum += end - start;
+            ++frames;
+            waitUntil(next);
+        }
+    }
+
+    /**
+     * Ends the loop, after the current update or render.
+     */
+    public void stop() { running = false; }
+
+    public boolean isRunning() { return running; }
+
+    /**
+     * @return the measures of the loop until now
+     */
+    public Stats stats() {
+        long f = frames;
+        return new Stats(f, updates, skipped,
+                f > 1 ? frameSum / 1e6 / (f-1) : 0, frameMax / 1e6,
+                f > 0 ? (double) busySum / f / period : 0);
+    }
+
+    /**
+     * Sleeps until SPIN_NANOS before the deadline, and spins the rest.
+     */
+    static void waitUntil(long deadline) {
+        for (long left; (left = deadline - System.nanoTime()) > 0; ) {
+            if (left > SPIN_NANOS)
+                LockSupport.parkNanos(left - SPIN_NANOS);
+            else
+                Thread.yield();
+        }
+    }
+}
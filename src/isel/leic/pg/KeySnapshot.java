@@ -0,0 +1,68 @@
+package isel.leic.pg;
+
+import isel.leic.pg.concurrent.KeyBitSet;
+
+/**
+ * State of all the keys of the keyboard, captured at one instant.<br>
+ * Returned by {@link Console#keySnapshot()}.
+ * <p>Also keeps the state of the previous capture, to know which keys were
+ * pressed or released between the two captures.</p>
+ * <p><b>Example:</b><br>
+ * <code>
+ * KeySnapshot keys = Console.keySnapshot();<br>
+ * if (keys.justPressed(KeyEvent.VK_SPACE)) fire();<br>
+ * if (keys.isDown(KeyEvent.VK_LEFT)) moveLeft();<br>
+ * </code></p>
+ */
+public class KeySnapshot {
+    private long[] now = new long[KeyBitSet.WORDS];
+    private long[] prev = new long[KeyBitSet.WORDS];
+
+    KeySnapshot() { }
+
+    /**
+     * Starts a new capture: the current state becomes the previous.
+     * @return the array to store the new state
+     */
+    long[] next() {
+        long[] t = prev;
+        prev = now;
+        now = t;
+        return now;
+    }
+
+    private static boolean bit(long[] bits, int code) {
+        return code >= 0 && code <= KeyBitSet.MAX_CODE && (bits[code >>> 6] & (1L << code)) != 0;
+    }
+
+    /**
+     * Checks if a key was pressed when captured.
+     * @param code Code of key checked
+     * @return true if the key was pressed
+     */
+    public boolean isDown(int code) { return bit(now,code); }
+
+    /**
+     * Checks if a key was pressed since the previous capture.
+     * @param code Code of key checked
+     * @return true if the key is pressed now and was not pressed in the previous capture
+     */
+    public boolean justPressed(int code) { return bit(now,code) && !bit(prev,code); }
+
+    /**
+     * Checks if a key was released since the previous capture.
+     * @param code Code of key checked
+     * @return true if the key is not pressed now and was pressed in the previous capture
+     */
+    public boolean justReleased(int code) { return !bit(now,code) && bit(prev,code); }
+
+    /**
+     * Checks if any key was pressed when captured.
+     * @return true if any key was pressed
+     */
+    public boolean anyDown() {
+        for (long w : now)
+            if (w != 0) return true;
+        return false;
+    }
+}
@@ -9,18 +9,30 @@ public class MouseEvent extends Location {
     /**
      * Type of mouse event.
      */
-    public static final int CLICK = 1, DOWN = 2, UP = 3, DRAG = 4;
+    public static final int CLICK = 1, DOWN = 2, UP = 3, DRAG = 4, MOVE = 5;
 
     /**
      * The type of event occurred.
      */
-    public final int type;
+    public int type;
 
     public MouseEvent(int type, int line, int col) {
         super(line,col);
         this.type = type;
     }
 
+    /**
+     * Changes all the fields, to reuse this object.
+     * @return this event
+     * @see Console#pollMouse(MouseEvent)
+     */
+    public MouseEvent set(int type, int line, int col) {
+        this.type = type;
+        this.line = line;
+        this.col = col;
+        return this;
+    }
+
     public boolean equals(MouseEvent e) {
         return super.equals(e) && e.type==type;
     }
@@ -30,7 +42,7 @@ public class MouseEvent extends Location {
         return obj instanceof MouseEvent && equals((MouseEvent)obj);
     }
 
-    private static final String[] typeTxt = { "Click", "Down", "Up", "Drag" };
+    private static final String[] typeTxt = { "Click", "Down", "Up", "Drag", "Move" };
     @Override
     public String toString() {
         return typeTxt[type-1]+":"+super.toString();
@@ -0,0 +1,116 @@
+package isel.leic.pg.bench;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Small benchmark harness in the style of JMH, without dependencies.
+ * <p>Each benchmark runs some warmup iterations and then the measured iterations,
+ * each one with a fixed number of operations. The score is the median time per operation.
+ * The results are printed and may be written in JSON.</p>
+ * <p>Arguments: <code>-wi</code> warmup iterations, <code>-i</code> measured iterations,
+ * <code>-o</code> file to write the JSON results (<code>-</code> for standard output).</p>
+ */
+public class Bench {
+    /**
+     * The code measured.
+     */
+    public interface Body {
+        /**
+         * Runs the operations.
+         * @param ops number of operations to run
+         */
+        void run(int ops) throws Exception;
+    }
+
+    /**
+     * Result of one benchmark.
+     */
+    public static class Result {
+        public final String name;
+        public final int ops;
+        public final double[] nsPerOp;      // Of each measured iteration
+        public final double score;          // Median of nsPerOp
+
+        Result(String name, int ops, double[] nsPerOp) {
+            this.name = name;
+            this.ops = ops;
+            this.nsPerOp = nsPerOp;
+            double[] sorted = nsPerOp.clone();
+            Arrays.sort(sorted);
+            score = sorted[sorted.length/2];
+        }
+
+        public double opsPerSec() { return 1e9 / score; }
+    }
+
+    private int warmups = 5, iterations = 10;
+    private String output = null;
+    private final List<Result> results = new ArrayList<>();
+
+    public Bench(String[] args) {
+        for (int i = 0; i+1 < args.length; i += 2)
+            switch (args[i]) {
+                case "-wi": warmups = Integer.parseInt(args[i+1]); break;
+                case "-i": iterations = Integer.parseInt(args[i+1]); break;
+                case "-o": output = args[i+1]; break;
+                default: throw new IllegalArgumentException("Unknown option "+args[i]);
+            }
+    }
+
+    /**
+     * Runs one benchmark.
+     * @param name name of the benchmark
+     * @param ops number of operations of each iteration
+     * @param body the code to measure
+     * @return the result, also stored to the report
+     */
+    public Result run(String name, int ops, Body body) throws Exception {
+        for (int i = 0; i < warmups; i++)
+            body.run(ops);
+        double[] ns = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            body.run(ops);
+            ns[i] = (double) (System.nanoTime() - start) / ops;
+        }
+        Result r = new Result(name, ops, ns);
+        results.add(r);
+        System.out.printf(Locale.ROOT, "%-45s %12.1f ns/op %14.0f ops/s%n", name, r.score, r.opsPerSec());
+        return r;
+    }
+
+    /**
+     * Writes the results in JSON, if an output was indicated in the arguments.
+     */
+    public void report() throws IOException {
+        if (output == null) return;
+        if (output.equals("-")) {
+            System.out.println(toJson());
+            return;
+        }
+        try (Writer w = new FileWriter(output)) {
+            w.write(toJson());
+        }
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            sb.append(String.format(Locale.ROOT,
+                "  {\"benchmark\": \"%s\", \"opsPerIteration\": %d, \"warmupIterations\": %d, " +
+                "\"scoreUnit\": \"ns/op\", \"score\": %.3f, \"opsPerSec\": %.1f, \"rawData\": [",
+                r.name, r.ops, warmups, r.score, r.opsPerSec()));
+            for (int j = 0; j < r.nsPerOp.length; j++)
+                sb.append(j > 0 ? ", " : "").append(String.format(Locale.ROOT, "%.3f", r.nsPerOp[j]));
+            sb.append(i < results.size()-1 ? "]},\n" : "]}\n");
+        }
+        return sb.append("]\n").toString();
+    }
+}
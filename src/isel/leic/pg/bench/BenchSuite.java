@@ -0,0 +1,30 @@
+package isel.leic.pg.bench;
+
+/**
+ * Runs all the benchmarks, without window (<code>java.awt.headless=true</code>).
+ * <p>Example: <code>java isel.leic.pg.bench.BenchSuite -wi 3 -i 5 -o results.json</code></p>
+ * <p>Arguments: the options of {@link Bench} and <code>-only</code> with the names of the suites to run,
+ * separated by commas (console, ringbuffer, keyset).</p>
+ * @see ConsoleBench
+ * @see RingBufferBench
+ * @see KeySetBench
+ */
+public class BenchSuite {
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        String only = "console,ringbuffer,keyset";
+        if (args.length >= 2 && args[0].equals("-only")) {
+            only = args[1];
+            args = java.util.Arrays.copyOfRange(args, 2, args.length);
+        }
+        Bench bench = new Bench(args);
+        for (String suite : only.split(","))
+            switch (suite.trim()) {
+                case "console": ConsoleBench.run(bench); break;
+                case "ringbuffer": RingBufferBench.run(bench); break;
+                case "keyset": KeySetBench.run(bench); break;
+                default: throw new IllegalArgumentException("Unknown suite " + suite);
+            }
+        bench.report();
+    }
+}
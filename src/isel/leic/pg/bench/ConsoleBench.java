@@ -0,0 +1,101 @@
+package isel.leic.pg.bench;
+
+import isel.leic.pg.Console;
+import isel.leic.pg.console.Backend;
+import isel.leic.pg.console.HeadlessBackend;
+
+import java.awt.*;
+import java.awt.event.KeyEvent;
+
+/**
+ * Measures the write, paint and input paths of the Console, in a {@link HeadlessBackend}.
+ * <p>print: one char per operation through Console.print(char) or Console.print(String).<br>
+ * frame: one full screen written between beginFrame and endFrame per operation.<br>
+ * redraw: one full screen changed and painted in the offscreen image per operation.<br>
+ * input: one key injected and read per operation.</p>
+ * @see Bench
+ */
+public class ConsoleBench {
+    private static final int LINES = 25, COLS = 80;
+    private static final int CHAR_OPS = 200_000;
+    private static final int SCREEN_OPS = 200;
+    private static final int INPUT_OPS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        Bench bench = new Bench(args);
+        run(bench);
+        bench.report();
+    }
+
+    static void run(Bench bench) throws Exception {
+        HeadlessBackend mem = new HeadlessBackend(LINES, COLS);
+        Console.open(mem);
+        bench.run("Console.print(char)", CHAR_OPS, ops -> {
+            for (int i = 0; i < ops; i++) Console.print((char) ('a' + i % 26));
+        });
+        String line = line(COLS);
+        bench.run("Console.print(String)", CHAR_OPS, ops -> {
+            for (int i = 0; i < ops; i += COLS) Console.print(line);
+        });
+        bench.run("Console.print.colors", CHAR_OPS, ops -> {
+            for (int i = 0; i < ops; i++) {
+                Console.color(i % 16, (i / 16) % 16);
+                Console.print('x');
+            }
+        });
+        bench.run("Console.frame(fullScreen)", SCREEN_OPS, ops -> {
+            for (int i = 0; i < ops; i++) screen(i, line);
+        });
+
+        mem.setPollPolicy(Backend.POLL_NON_BLOCKING);
+        bench.run("Console.input(typed)", INPUT_OPS, ops -> {
+            for (int i = 0; i < ops; i++) { mem.typeChar('k'); Console.getChar(); }
+        });
+        bench.run("Console.input(pressed)", INPUT_OPS, ops -> {
+            for (int i = 0; i < ops; i++) {
+                mem.pressKey(KeyEvent.VK_LEFT);
+                Console.getKeyPressed();
+                mem.releaseKey(KeyEvent.VK_LEFT);
+            }
+        });
+        Console.close();
+
+        HeadlessBackend img = new HeadlessBackend(LINES, COLS, new Font(Font.MONOSPACED, Font.BOLD, 20), 12, 20);
+        Console.open(img);
+        img.getImage();
+        bench.run("Console.redraw(fullScreen)", SCREEN_OPS, ops -> {
+            for (int i = 0; i < ops; i++) {
+                screen(i, line);
+                img.getImage();
+            }
+        });
+        bench.run("Console.redraw(oneCell)", CHAR_OPS / 10, ops -> {
+            for (int i = 0; i < ops; i++) {
+                Console.cursor(i % LINES, i % COLS);
+                Console.print((char) ('a' + i % 26));
+                img.getImage();
+            }
+        });
+        Console.close();
+    }
+
+    private static String line(int cols) {
+        StringBuilder sb = new StringBuilder(cols);
+        for (int c = 0; c < cols; c++) sb.append((char) ('A' + c % 26));
+        return sb.toString();
+    }
+
+    /**
+     * Writes all the lines, with colors that change in each call.
+     */
+    private static void screen(int i, String line) {
+        Console.beginFrame();
+        for (int l = 0; l < LINES; l++) {
+            Console.cursor(l, 0);
+            Console.color((i + l) % 16, (i + l + 1) % 16);
+            Console.print(line);
+        }
+        Console.endFrame();
+    }
+}
@@ -0,0 +1,60 @@
+package isel.leic.pg.bench;
+
+import isel.leic.pg.concurrent.*;
+
+/**
+ * Compares the set of pressed keys with a lock (PositiveIntSet) and the lock-free bitset (KeyBitSet).
+ * <p>addRemove: one thread adds and removes one key per operation.<br>
+ * contended: other thread adds and removes keys continuously while the measured thread
+ * checks one key per operation.</p>
+ * @see Bench
+ */
+public class KeySetBench {
+    private static final int OPS = 1_000_000;
+    private static final int KEYS = 8;      // Keys pressed by the writer thread
+    private static final int CODE = 37;
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = new Bench(args);
+        run(bench);
+        bench.report();
+    }
+
+    static void run(Bench bench) throws Exception {
+        PositiveIntSet set = new PositiveIntSet(KEYS * 2);
+        bench.run("PositiveIntSet.addRemove", OPS, ops -> {
+            for (int i = 0; i < ops; i++) { set.add(CODE); set.remove(CODE); }
+        });
+        KeyBitSet bits = new KeyBitSet();
+        bench.run("KeyBitSet.addRemove", OPS, ops -> {
+            for (int i = 0; i < ops; i++) { bits.add(CODE); bits.remove(CODE); }
+        });
+
+        bench.run("PositiveIntSet.contended", OPS, ops ->
+            contended(ops, code -> { set.add(code); set.remove(code); }, () -> set.contains(CODE)));
+        bench.run("KeyBitSet.contended", OPS, ops ->
+            contended(ops, code -> { bits.add(code); bits.remove(code); }, () -> bits.contains(CODE)));
+        long[] snapshot = new long[KeyBitSet.WORDS];
+        bench.run("KeyBitSet.copyTo.contended", OPS / 100, ops ->
+            contended(ops, code -> { bits.add(code); bits.remove(code); }, () -> { bits.copyTo(snapshot); return true; }));
+    }
+
+    interface Writer { void write(int code); }
+    interface Reader { boolean read(); }
+
+    /**
+     * The writer thread changes KEYS codes until the caller runs ops reads.
+     */
+    static void contended(int ops, Writer writer, Reader reader) throws InterruptedException {
+        Thread w = new Thread(() -> {
+            for (int i = 0; !Thread.currentThread().isInterrupted(); i++) writer.write(CODE + i % KEYS);
+        });
+        w.start();
+        int hits = 0;
+        for (int i = 0; i < ops; i++)
+            if (reader.read()) ++hits;
+        w.interrupt();
+        w.join();
+        if (hits < 0) System.out.println(hits);     // Keeps the reads
+    }
+}
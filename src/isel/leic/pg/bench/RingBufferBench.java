@@ -0,0 +1,71 @@
+package isel.leic.pg.bench;
+
+import isel.leic.pg.concurrent.*;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Compares the ring buffers with locks (CharRingBuffer, RingBuffer) and the lock-free
+ * single producer/single consumer version (SpscLongRingBuffer).
+ * <p>putGet: one thread puts and gets one element per operation.<br>
+ * handoff: one thread puts continuously and other thread gets; one operation is one element received.</p>
+ * @see Bench
+ */
+public class RingBufferBench {
+    private static final int OPS = 1_000_000;
+    private static final int HANDOFF_OPS = 100_000;
+    private static final int SIZE = 128;
+    private static final Object EVENT = new Object();
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = new Bench(args);
+        run(bench);
+        bench.report();
+    }
+
+    static void run(Bench bench) throws Exception {
+        CharRingBuffer chars = new CharRingBuffer(SIZE, true);
+        bench.run("CharRingBuffer.putGet", OPS, ops -> {
+            for (int i = 0; i < ops; i++) { chars.put('x'); chars.get(0); }
+        });
+        RingBuffer<Object> elems = new RingBuffer<>(SIZE, true);
+        bench.run("RingBuffer.putGet", OPS, ops -> {
+            for (int i = 0; i < ops; i++) { elems.put(EVENT); elems.get(0); }
+        });
+        SpscLongRingBuffer spscLongs = new SpscLongRingBuffer(SIZE);
+        bench.run("SpscLongRingBuffer.putGet", OPS, ops -> {
+            for (int i = 0; i < ops; i++) { spscLongs.put(i); spscLongs.get(0); }
+        });
+
+        bench.run("CharRingBuffer.handoff", HANDOFF_OPS, ops ->
+            handoff(ops, () -> chars.put('x'), () -> get(chars)));
+        bench.run("RingBuffer.handoff", HANDOFF_OPS, ops ->
+            handoff(ops, () -> elems.put(EVENT), () -> get(elems)));
+        bench.run("SpscLongRingBuffer.handoff", HANDOFF_OPS, ops ->
+            handoff(ops, () -> spscLongs.put(1), () -> get(spscLongs)));
+    }
+
+    private static boolean get(CharRingBuffer b) {
+        try { return b.get(1) != 0; } catch (InterruptedException e) { return false; }
+    }
+    private static boolean get(RingBuffer<Object> b) {
+        try { return b.get(1) != null; } catch (InterruptedException e) { return false; }
+    }
+    private static boolean get(SpscLongRingBuffer b) {
+        try { return b.get(1) != SpscLongRingBuffer.NO_ELEM; } catch (InterruptedException e) { return false; }
+    }
+
+    /**
+     * The producer thread puts until the consumer (the caller) receives ops elements.
+     */
+    static void handoff(int ops, Runnable put, BooleanSupplier get) throws InterruptedException {
+        Thread producer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) put.run();
+        });
+        producer.start();
+        for (int received = 0; received < ops; )
+            if (get.getAsBoolean()) ++received;
+        producer.interrupt();
+        producer.join();
+    }
+}
@@ -0,0 +1,60 @@
+package isel.leic.pg.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Signal to wait, without polling, for events stored by producers in several queues.
+ * <p>The producers call {@link #post()} after storing each event.
+ * The consumer reads the {@link #sequence()}, checks its queues and, if all are empty,
+ * calls {@link #await(long, long)} that returns as soon as another event is posted.</p>
+ * <p>The producer only takes the lock if the consumer is waiting.</p>
+ *
+ * <p>Used in the Console Frame class to wait for keys and mouse events.</p>
+ */
+public class EventSignal {
+    private final AtomicLong seq = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition posted = lock.newCondition();
+    private volatile int waiters = 0;
+
+    /**
+     * Indicates that one event was stored, releasing the consumers waiting.
+     */
+    public void post() {
+        seq.incrementAndGet();
+        if (waiters > 0) {
+            lock.lock();
+            try { posted.signalAll(); }
+            finally { lock.unlock(); }
+        }
+    }
+
+    /**
+     * The current sequence number, to be read before checking the queues.
+     * @return the number of events posted
+     */
+    public long sequence() { return seq.get(); }
+
+    /**
+     * Waits until some event is posted after the sequence number indicated.
+     * <p>Returns immediately if it was already posted.</p>
+     * @param sequence the value returned by sequence() before checking the queues
+     * @param nanos Maximum time to wait, in nanoseconds
+     * @return the remaining time, in nanoseconds, or a value less or equal to zero if the time elapsed
+     * @throws InterruptedException
+     */
+    public long await(long sequence, long nanos) throws InterruptedException {
+        lock.lock();
+        try {
+            ++waiters;
+            while (seq.get() == sequence && nanos > 0)
+                nanos = posted.awaitNanos(nanos);
+            return nanos;
+        } finally {
+            --waiters;
+            lock.unlock();
+        }
+    }
+}
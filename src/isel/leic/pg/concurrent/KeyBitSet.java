@@ -0,0 +1,154 @@
+package isel.leic.pg.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent set of key codes, stored as one bit per code, without locks.
+ * <p>Covers all the codes in [0..MAX_CODE]. The operations add, remove and contains are O(1)
+ * and also keeps the number of elements and the last value added.
+ * The method getAny blocks if there are no elements.</p>
+ *
+ * <p>Used in the Console KeyManager class to store the keys that are currently pressed.</p>
+ */
+public class KeyBitSet {
+    /**
+     * Greater code stored. Codes of AWT key events are in the range [0..0xFFFF]
+     */
+    public static final int MAX_CODE = 0xFFFF;
+
+    /**
+     * Value returned by getAny(timeout) if there are no elements after the elapsed time indicated.
+     */
+    public static final int NO_ELEM = -1;
+
+    private final AtomicLongArray words = new AtomicLongArray(WORDS);
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile int last = NO_ELEM;        // Last value added, if still in the set
+    private final EventSignal added = new EventSignal();
+    private final AtomicLong started = new AtomicLong();    // Number of modifications started
+    private final AtomicLong done = new AtomicLong();       // Number of modifications done
+
+    /**
+     * Number of longs needed to store all the bits of the set.
+     */
+    public static final int WORDS = (MAX_CODE+1) / 64;
+
+    /**
+     * Adds a value to the set.
+     * <p>Releases the possible caller of getAny (if exists).</p>
+     * @param value The value to store.
+     * @return true if the value was stored or was already in the set.
+     */
+    public boolean add(int value) {
+        if (value < 0 || value > MAX_CODE) return false;
+        int w = value >>> 6;
+        long bit = 1L << value;
+        if ((words.get(w) & bit) != 0) return true;
+        long old;
+        started.incrementAndGet();
+        do old = words.get(w);
+        while (!words.compareAndSet(w, old, old | bit));
+        done.incrementAndGet();
+        if ((old & bit) != 0) return true;
+        size.incrementAndGet();
+        last = value;
+        added.post();
+        return true;
+    }
+
+    /**
+     * Removes the specified value from the set.
+     * @param value The value to be removed, if present.
+     * @return true if the value was removed.
+     */
+    public boolean remove(int value) {
+        if (value < 0 || value > MAX_CODE) return false;
+        int w = value >>> 6;
+        long bit = 1L << value;
+        if ((words.get(w) & bit) == 0) return false;
+        long old;
+        started.incrementAndGet();
+        do old = words.get(w);
+        while (!words.compareAndSet(w, old, old & ~bit));
+        done.incrementAndGet();
+        if ((old & bit) == 0) return false;
+        size.decrementAndGet();
+        if (last == value)
+            last = NO_ELEM;
+        return true;
+    }
+
+    /**
+     * Verify if one value is contained in set.
+     * @param value The value to be tested
+     * @return true if this set contains the specified value
+     */
+    public boolean contains(int value) {
+        return value >= 0 && value <= MAX_CODE && (words.get(value >>> 6) & (1L << value)) != 0;
+    }
+
+    /**
+     * @return true if this set contains no elements.
+     */
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /**
+     * @return The last value added, if it is still in the set, or other value of the set or NO_ELEM if empty.
+     */
+    public int getLast() {
+        int v = last;
+        if (v != NO_ELEM || isEmpty()) return v;
+        for (int w = 0; w < words.length(); w++) {     // The last was removed: search any other
+            long bits = words.get(w);
+            if (bits != 0)
+                return w*64 + Long.numberOfTrailingZeros(bits);
+        }
+        return NO_ELEM;
+    }
+
+    /**
+     * Expected to be added any value to the set.
+     * <p>Returns immediately if there is any value in the set</p>
+     * @param timeout Maximum time to wait, in milliseconds, for some value is added
+     * @return The last value added or other contained in the set or NO_ELEM(-1) after elapsed the timeout
+     * @throws InterruptedException
+     */
+    public int getAny(long timeout) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (;;) {
+            long seq = added.sequence();
+            int v = getLast();
+            if (v != NO_ELEM || nanos <= 0) return v;
+            nanos = added.await(seq, nanos);
+        }
+    }
+
+    /**
+     * Copies all the bits of the set, captured at one instant.
+     * <p>Repeats the copy if the set was modified while copying.</p>
+     * @param dst destination with at least WORDS elements. The code c is the bit (c%64) of dst[c/64]
+     */
+    public void copyTo(long[] dst) {
+        long before;
+        do {
+            before = done.get();
+            for (int w = 0; w < WORDS; w++)
+                dst[w] = words.get(w);
+        } while (started.get() != before);
+    }
+
+    public void clear() {
+        started.incrementAndGet();
+        for (int w = 0; w < words.length(); w++)
+            if (words.get(w) != 0)
+                words.set(w, 0);
+        done.incrementAndGet();
+        size.set(0);
+        last = NO_ELEM;
+    }
+}
@@ -0,0 +1,92 @@
+package isel.leic.pg.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds, without locks, for any number of threads.
+ * <p>Each power of 2 is divided in 4 buckets, so the percentiles have an error below 25%.
+ * Recording is one atomic increment plus the update of the sum and of the maximum.</p>
+ *
+ * <p>Used in the Console Metrics to measure the paint times and the input latencies.</p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 2;                      // 4 buckets per power of 2
+    private static final int BUCKETS = 64 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int bucket(long nanos) {
+        if (nanos < (1 << SUB_BITS)) return (int) Math.max(nanos, 0);
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);        // nanos in [2^exp, 2^(exp+1))
+        int sub = (int) (nanos >>> (exp - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    /**
+     * The greatest value of a bucket.
+     */
+    private static long upper(int bucket) {
+        if (bucket < (1 << SUB_BITS)) return bucket;
+        int exp = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+        int sub = bucket & ((1 << SUB_BITS) - 1);
+        return (1L << exp) + ((long) (sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Adds one duration.
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        for (long m; nanos > (m = max.get()) && !max.compareAndSet(m, nanos); )
+            ;
+    }
+
+    public long count() { return count.get(); }
+
+    /**
+     * @return the average, in nanoseconds, or 0 if empty
+     */
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @return the greatest duration recorded, in nanoseconds
+     */
+    public long max() { return max.get(); }
+
+    /**
+     * @param p the percentile, in [0..100]
+     * @return the duration not exceeded by p% of the recorded, in nanoseconds (upper bound of the bucket)
+     */
+    public long percentile(double p) {
+        long n = 0;
+        long[] c = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) n += c[i] = counts.get(i);
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(p / 100 * n);
+        long acc = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            if ((acc += c[i]) >= rank && c[i] > 0)
+                return Math.min(upper(i), max.get());
+        return max.get();
+    }
+
+    /**
+     * Discards all the durations recorded.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,13 @@
+package isel.leic.pg.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counter padded to fill a cache line.
+ * <p>Used for the indexes of the lock-free ring buffers, so the index written by the producer
+ * and the index written by the consumer are not in the same cache line (false sharing).</p>
+ */
+@SuppressWarnings({"serial","unused"})
+class PaddedCounter extends AtomicLong {
+    private long p1, p2, p3, p4, p5, p6, p7;
+}
@@ -0,0 +1,169 @@
+package isel.leic.pg.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Circular array of long values with limited size, without locks, for one producer thread
+ * and one consumer thread.
+ * <p>The consumer spins for a while and then parks if there are no values in the array.
+ * If it is full, the producer does not put new values.</p>
+ * <p>The indexes are only incremented, each one by a single thread, with ordered writes (lazySet).
+ * The producer only reads the index of the consumer when the array seems full and the consumer
+ * only reads the index of the producer when the array seems empty.</p>
+ *
+ * <p>The values are read with volatile reads, so the consumer can check, after reading a value,
+ * that its position was not reused by the producer after a {@link #clear()}.</p>
+ *
+ * <p>Used by the Console to queue the input events packed in long values.</p>
+ */
+public class SpscLongRingBuffer {
+    private static final int SPINS = 100;        // Checks before parking the consumer
+
+    /**
+     * Value returned by get(timeout) if there are no elements after the elapsed time indicated.
+     */
+    public static final long NO_ELEM = Long.MIN_VALUE;
+
+    private final AtomicLongArray buffer;
+    private final int mask;
+    private final PaddedCounter put = new PaddedCounter();   // Written by the producer
+    private final PaddedCounter get = new PaddedCounter();   // Written by the consumer
+    private long getCache = 0;                  // Last value of get read by the producer
+    private long putCache = 0;                  // Last value of put read by the consumer
+    private volatile long clearMark = 0;        // Values before this index are discarded
+    private volatile long dropped = 0;          // Values not stored because the array was full
+    private final AtomicReference<Thread> waiter = new AtomicReference<>();
+
+    /**
+     * @param bufSize capacity, rounded up to a power of 2
+     */
+    public SpscLongRingBuffer(int bufSize) {
+        int size = Integer.highestOneBit(Math.max(bufSize,2)-1) << 1;
+        buffer = new AtomicLongArray(size);
+        mask = size-1;
+    }
+
+    /**
+     * Stores one value. Called only by the producer thread.
+     * @return false if the array is full and the value was not stored
+     */
+    public boolean put(long value) {
+        long p = put.get();
+        if (p - getCache >= buffer.length()) {
+            getCache = Math.max(get.get(), clearMark);  // The values discarded by clear() free their positions
+            if (p - getCache >= buffer.length()) {
+                dropped = dropped + 1;          // Only written by the producer
+                return false;
+            }
+        }
+        buffer.lazySet((int) p & mask, value);
+        put.lazySet(p+1);
+        Thread w = waiter.getAndSet(null);       // Atomic exchange orders the publication before the check
+        if (w != null) LockSupport.unpark(w);
+        return true;
+    }
+
+    /**
+     * Takes the oldest value. Called only by the consumer thread.
+     * @param timeout Maximum time to wait, in milliseconds. If is 0 does not wait.
+     * @return the value or NO_ELEM if none arrived in the time indicated
+     * @throws InterruptedException
+     */
+    public long get(long timeout) throws InterruptedException {
+        for (;;) {
+            long g = first();
+            if (g >= putCache) {
+                putCache = put.get();
+                if (g >= putCache && (timeout <= 0 || !await(g, timeout)))
+                    return NO_ELEM;
+            }
+            long value = buffer.get((int) g & mask);  // Read before the check of clearMark
+            if (clearMark > g) continue;        // Discarded while read, the position may be reused by the producer
+            get.lazySet(g+1);
+            return value;
+        }
+    }
+
+    /**
+     * Takes all the values available, up to the capacity of dst, without waiting.
+     * Called only by the consumer thread.
+     * @return the number of values stored in dst
+     */
+    public int drainTo(long[] dst) {
+        long g;
+        int n;
+        do {
+            g = first();
+            putCache = put.get();
+            n = (int) Math.min(putCache - g, dst.length);
+            for (int i = 0; i < n; i++)
+                dst[i] = buffer.get((int) (g+i) & mask);
+        } while (clearMark > g);                // Discarded while read
+        get.lazySet(g+n);
+        return n;
+    }
+
+    private long first() {
+        long g = get.get(), c = clearMark;
+        if (c > g) {
+            get.lazySet(c);
+            g = c;
+        }
+        return g;
+    }
+
+    private boolean await(long g, long timeout) throws InterruptedException {
+        for (int i = 0; i < SPINS; i++)
+            if ((putCache = put.get()) > g) return true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        Thread me = Thread.currentThread();
+        try {
+            for (;;) {
+                waiter.set(me);
+                if ((putCache = put.get()) > g) return true;
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+        } finally {
+            waiter.compareAndSet(me, null);
+        }
+    }
+
+    /**
+     * Discards the values stored. May be called by any of the threads.
+     * The positions are free to the producer immediately, without waiting for the consumer.
+     */
+    public void clear() { clearMark = put.get(); }
+
+    /**
+     * Number of values stored since the creation. Called only by the producer thread.
+     */
+    public long putCount() { return put.get(); }
+
+    /**
+     * Number of values taken or discarded since the creation. Called only by the consumer thread.
+     */
+    public long getCount() { return first(); }
+
+    /**
+     * @return the number of values stored, not yet taken
+     */
+    public int size() { return (int) Math.max(put.get() - Math.max(get.get(), clearMark), 0); }
+
+    /**
+     * @return the maximum number of values stored
+     */
+    public int capacity() { return buffer.length(); }
+
+    public boolean isEmpty() { return Math.max(get.get(), clearMark) >= put.get(); }
+
+    /**
+     * @return the number of values discarded because the array was full
+     */
+    public long getDropped() { return dropped; }
+}
@@ -0,0 +1,454 @@
+package isel.leic.pg.console;
+
+import isel.leic.pg.Console;
+import isel.leic.pg.MouseEvent;
+import isel.leic.pg.concurrent.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base of the backends, with the cursor, the writes in the cells and the input queues.
+ * <p>The subclass shows the cells changed ({@link #repaintCells(int, int, int, int)}) and feeds the input
+ * to the {@link KeyManager} and the {@link MouseManager}.</p>
+ */
+public abstract class AbstractBackend implements Backend {
+	private static final char CURSOR = '|';
+    private static final int BLINK_TIME = 500;
+	private static int minTime = 10;
+    private int pollPolicy = POLL_ADAPTIVE;
+    private int idlePolls = 0;      // Consecutive polls without input
+
+	final int lines, cols;
+
+	private int lin=0, col=0;
+    private boolean echo = false;
+    private boolean scrollOn = false;   // Scroll up at the end of the last line, instead of returning to line 0
+	private Color bColor = Color.BLACK;
+    private Color fColor = Color.WHITE;
+    
+    final CellGrid grid;
+    final KeyManager keyMgr;
+    MouseManager mouseMgr;
+    final EventSignal input = new EventSignal();     // Posted on each key or mouse event
+    final Metrics metrics = new Metrics(this);
+
+    public static void setLimitTime(int minTime) {
+        AbstractBackend.minTime = minTime;
+    }
+
+    public void setPollPolicy(int policy) {
+        if (policy<POLL_NON_BLOCKING || policy>POLL_EVENT)
+            throw new IllegalArgumentException("Invalid poll policy "+policy);
+        pollPolicy = policy;
+        idlePolls = 0;
+    }
+    public int getPollPolicy() { return pollPolicy; }
+
+    AbstractBackend(int lines, int cols) {
+		this.lines = lines; this.cols = cols;
+		grid = new CellGrid(lines, cols, bColor, fColor, new DirtyRegion.Target() {
+			@Override
+			public void repaintCells(int lin, int col, int height, int width) {
+				AbstractBackend.this.repaintCells(lin, col, height, width);
+			}
+			@Override
+			public boolean scrollCells(int lin, int height, int n) {
+				return AbstractBackend.this.scrollCells(lin, height, n);
+			}
+			@Override
+			public void flushed() {
+				metrics.cellsFlushed();
+				AbstractBackend.this.flushed();
+			}
+		});
+		keyMgr = new KeyManager(this, input);
+	}
+
+	/**
+	 * Shows the cells changed, in a rectangle of cells.
+	 * Called with the lock of the backend held, at the end of each batch of writes.
+	 */
+	abstract void repaintCells(int lin, int col, int height, int width);
+
+	/**
+	 * Moves the cells shown in the lines of a region n lines up (n>0) or down (n<0),
+	 * before the cells are moved. Called with the lock of the backend held.
+	 * @return false if the cells shown can not be moved and the whole region must be repainted
+	 */
+	boolean scrollCells(int lin, int height, int n) { return false; }
+
+	/**
+	 * Called after the last {@link #repaintCells(int, int, int, int)} of each batch of writes.
+	 */
+	void flushed() { }
+
+    public Metrics getMetrics() { return metrics; }
+
+    public int getLines() { return lines; }
+    public int getCols() { return cols; }
+
+    public void setEcho(boolean echo) { this.echo = echo; }
+    public boolean isEcho() { return echo; }
+
+    public void setScroll(boolean on) { scrollOn = on; }
+    public boolean isScroll() { return scrollOn; }
+
+    public int getLin() { return lin; }
+    public int getCol() { return col; }
+
+    public void setBackColor(Color backColor) { bColor = backColor; }
+    public void setForeColor(Color foreColor) { fColor = foreColor; }
+
+	public synchronized void put(char c) {
+	  grid.beginBatch();
+	  if (c=='\n' && cursorOn && blinkOn)
+		  grid.setChr(lin,col,cursorChar);
+	  advance(c);
+	  updateCursor();
+	  grid.endBatch();
+	}
+
+	private void advance(char c) {
+	  if (c=='\n') {
+		  newLine();
+		  col = 0;
+	  } else {
+		  grid.setChr(lin,col,c,bColor,fColor);
+		  if (++col==cols) {
+			  col=0;
+			  newLine();
+		  }
+	  }
+	}
+
+	private void newLine() {
+	  if (++lin<lines) return;
+	  if (scrollOn) {
+		  lin = lines-1;
+		  grid.scroll(0,lines,1,bColor,fColor);
+	  } else
+		  lin = 0;
+	}
+
+	/**
+	 * Moves the lines of a region n lines up (n>0) or down (n<0), with one repaint request.
+	 * <p>The lines exposed are filled with spaces in the current colors and the cursor does not move.
+	 * The lines that leave the top of the console are kept in the scrollback.</p>
+	 */
+	public synchronized void scroll(int lin, int height, int n) {
+		int l0 = Math.max(lin,0), l1 = Math.min(lin+height,lines);
+		if (l0>=l1 || n==0) return;
+		grid.beginBatch();
+		hideCursor();
+		grid.scroll(l0, l1-l0, n, bColor, fColor);
+		updateCursor();
+		grid.endBatch();
+	}
+
+	/**
+	 * Keeps the last lines that scroll off the top of the console.
+	 * @param lines maximum number of lines kept, or 0 to keep none
+	 */
+	public synchronized void setScrollback(int lines) {
+		grid.beginBatch();
+		grid.setScrollback(lines);
+		grid.endBatch();
+	}
+
+	/**
+	 * Moves the view down, showing the last lines of the scrollback at the top.
+	 * While the view is moved, the writes are shown only when the view returns to 0.
+	 * @return the offset applied, limited to the lines kept in the scrollback
+	 */
+	public synchronized int viewScrollback(int offset) {
+		grid.beginBatch();
+		int view = grid.viewScrollback(offset);
+		grid.endBatch();
+		return view;
+	}
+
+	public synchronized int getScrollbackSize() { return grid.getScrollbackSize(); }
+
+	/**
+	 * Writes a sequence of chars at the cursor position, with one repaint request.
+	 */
+	public synchronized void put(CharSequence s) {
+		grid.beginBatch();
+		hideCursor();
+		for(int i=0 ; i<s.length() ; ++i) advance(s.charAt(i));
+		updateCursor();
+		grid.endBatch();
+	}
+
+	/**
+	 * Writes len chars of the array at the cursor position, with one repaint request.
+	 */
+	public synchronized void put(char[] cs, int off, int len) {
+		grid.beginBatch();
+		hideCursor();
+		for(int i=off ; i<off+len ; ++i) advance(cs[i]);
+		updateCursor();
+		grid.endBatch();
+	}
+
+	/**
+	 * Writes a rectangular block of chars with the upper left corner at (lin,col), with one repaint request.
+	 * <p>The cells outside the console are ignored and the cursor does not move.</p>
+	 * @param block the lines of chars to write. The lines may have different lengths.
+	 * @param fore indexes in colors of the foreground of each cell, or null to use the current color.
+	 * @param back indexes in colors of the background of each cell, or null to use the current color.
+	 * @param colors the colors referred by the indexes
+	 */
+	public synchronized void putBlock(int lin, int col, char[][] block, int[][] fore, int[][] back, Color[] colors) {
+		grid.beginBatch();
+		hideCursor();
+		for(int i=0 ; i<block.length && lin+i<lines ; ++i) {
+			if (lin+i<0) continue;
+			char[] line = block[i];
+			for(int j=Math.max(0,-col) ; j<line.length && col+j<cols ; ++j)
+				grid.setChr(lin+i, col+j, line[j],
+						back==null ? bColor : colors[back[i][j] % colors.length],
+						fore==null ? fColor : colors[fore[i][j] % colors.length]);
+		}
+		updateCursor();
+		grid.endBatch();
+	}
+
+	/**
+	 * Fills a rectangle of cells with the same char and colors, with one repaint request.
+	 * <p>The cells outside the console are ignored and the cursor does not move.</p>
+	 */
+	public synchronized void fill(int lin, int col, int height, int width, char c, Color back, Color fore) {
+		int l0 = Math.max(lin,0), l1 = Math.min(lin+height,lines);
+		int c0 = Math.max(col,0), c1 = Math.min(col+width,cols);
+		if (l0>=l1 || c0>=c1) return;
+		grid.beginBatch();
+		hideCursor();
+		grid.fill(l0, c0, l1-l0, c1-c0, c, back, fore);
+		updateCursor();
+		grid.endBatch();
+	}
+
+	/**
+	 * Clears all cells with spaces in the current colors, with one repaint request,
+	 * and moves the cursor to (0,0).
+	 */
+	public synchronized void clear() {
+		grid.beginBatch();
+		lin = col = 0;
+		grid.fill(0, 0, lines, cols, ' ', bColor, fColor);
+		updateCursor();
+		grid.endBatch();
+	}
+
+	/**
+	 * Starts a frame. The writes until endFrame() are not visible.
+	 * <p>Frames may be nested; only the outermost endFrame() presents the changes.</p>
+	 */
+	public synchronized void beginFrame() { grid.beginFrame(); }
+
+	/**
+	 * Ends the frame, presenting all the cells changed in one paint.
+	 */
+	public synchronized void endFrame() { grid.endFrame(); }
+
+    /**
+     * Number of repaint requests avoided by merging the changed cells.
+     */
+    public long getRepaintsSaved() { return grid.getRepaintsSaved(); }
+
+    // KEYBOARD INPUT
+
+    public char getChar() throws InterruptedException {
+        long seq = input.sequence();
+        char c = keyMgr.getChar(0);
+        if (c==0 && idle(seq))
+            c = keyMgr.getChar(0);
+        if (c!=0) idlePolls = 0;
+        blinkCursor();
+        return c;
+    }
+
+    public boolean keyPressed(int code) { return keyMgr.isPressed(code); }
+    public boolean anyKeyPressed()      { return keyMgr.anyPressed(); }
+
+    /**
+     * Copies the state of all keys, captured at one instant.
+     * @param dst array with KeyBitSet.WORDS elements. The code c is the bit (c%64) of dst[c/64]
+     */
+    public void copyPressedKeys(long[] dst) { keyMgr.copyPressed(dst); }
+
+    public int getKeyPressed() {
+        int key = Console.NO_KEY;
+        try {
+            long seq = input.sequence();
+            key = pollKey();
+            if (key==Console.NO_KEY && idle(seq))
+                key = pollKey();
+            if (key!=Console.NO_KEY) idlePolls = 0;
+        } catch (InterruptedException ignored) { }
+        blinkCursor();
+        return key;
+    }
+
+    private int pollKey() throws InterruptedException {
+        int key = keyMgr.getAnyPressed(0);
+        return key != KeyBitSet.NO_ELEM ? key :
+                (mouseMgr == null || mouseMgr.isEmpty()) ? Console.NO_KEY : Console.MOUSE_EVENT;
+    }
+
+    /**
+     * Applies the poll policy after a poll without input.
+     * @param seq the input sequence read before the poll
+     * @return true if some input arrived while waiting
+     */
+    private boolean idle(long seq) throws InterruptedException {
+        long wait;
+        switch (pollPolicy) {
+            case POLL_ADAPTIVE: wait = Math.min(++idlePolls, minTime); break;
+            case POLL_EVENT: wait = minTime; break;
+            default: return false;
+        }
+        return input.await(seq, TimeUnit.MILLISECONDS.toNanos(wait)) > 0;
+    }
+
+    /**
+     * Waits until a char is typed, blocked until the next key event (not polling).
+     * @param timeout Maximum time to wait in milliseconds. If is 0 wait forever
+     * @return The char typed or 0 if the time elapsed
+     */
+    public char waitChar(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for(;;) {
+            long seq = input.sequence();
+            char c = keyMgr.getChar(0);
+            blinkCursor();
+            if (c!=0) return c;
+            if (!awaitInput(seq, timeout, deadline)) return 0;
+        }
+    }
+
+    /**
+     * Waits until a key is pressed or a mouse event, blocked until the next event (not polling).
+     * @param timeout Maximum time to wait in milliseconds. If is 0 wait forever
+     * @return The code of key pressed, Console.MOUSE_EVENT or Console.NO_KEY if the time elapsed
+     */
+    public int waitKeyPressed(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for(;;) {
+            long seq = input.sequence();
+            int key = keyMgr.getAnyPressed(0);
+            blinkCursor();
+            if (key != KeyBitSet.NO_ELEM) return key;
+            if (mouseMgr != null && !mouseMgr.isEmpty()) return Console.MOUSE_EVENT;
+            if (!awaitInput(seq, timeout, deadline)) return Console.NO_KEY;
+        }
+    }
+
+    /**
+     * Waits for the next input event, the deadline or the next cursor blink.
+     * @return false if the deadline was reached
+     */
+    private boolean awaitInput(long seq, long timeout, long deadline) throws InterruptedException {
+        long wait = timeout > 0 ? deadline - System.nanoTime() : Long.MAX_VALUE;
+        if (wait <= 0) return false;
+        if (cursorOn)
+            wait = Math.min(wait, TimeUnit.MILLISECONDS.toNanos(Math.max(blinkTime - System.currentTimeMillis(), 1)));
+        input.await(seq, wait);
+        return true;
+    }
+
+    // CURSOR MANAGER
+
+    private boolean cursorOn=false;
+    private char cursorChar;
+    private boolean blinkOn;
+    private long blinkTime=0;
+
+    private void hideCursor() {
+        if (cursorOn && blinkOn)
+            grid.setChr(lin,col,cursorChar);
+    }
+
+    private void updateCursor() {
+        if (cursorOn) {
+            cursorChar = grid.getChr(lin,col);
+            if (blinkOn)
+                grid.setChr(lin,col,CURSOR);
+        }
+    }
+
+    public synchronized void cursor(int l, int c) {
+		if (l==lin && c==col) return;
+		grid.beginBatch();
+		hideCursor();
+		lin = l;
+		if (lin>=lines) lin=lines-1;
+		col = c;
+		if (col>=cols) col=cols-1;
+		updateCursor();
+		grid.endBatch();
+	}
+	
+	public synchronized void setCursorOn(boolean on) {
+		if (cursorOn==on) return;
+		cursorOn=on;
+		if (on) {
+		  blinkOn=false;
+		  cursorChar=grid.getChr(lin,col);
+		  blinkCursor();
+		} else
+		  if (blinkOn) grid.setChr(lin,col,cursorChar); 
+	}
+    public boolean isCursorOn() {
+        return cursorOn;
+    }
+	
+	private synchronized void blinkCursor() {
+		if (!cursorOn || System.currentTimeMillis() < blinkTime) return;
+		blinkOn = !blinkOn;
+		grid.setChr(lin,col,blinkOn ? CURSOR : cursorChar);
+		blinkTime = System.currentTimeMillis() + BLINK_TIME;
+	}
+
+    public void enableMouseEvents(boolean drag, boolean move) {
+        if (mouseMgr!=null)
+            mouseMgr.removeListeners();
+        mouseMgr = newMouseManager(drag,move);
+    }
+
+    /**
+     * Creates the manager of the mouse events, connected to the source of the events of this backend.
+     */
+    MouseManager newMouseManager(boolean drag, boolean move) {
+        return new MouseManager(drag,move,input,metrics);
+    }
+
+    public void disableMouseEvents() {
+        if (mouseMgr==null) return;
+        mouseMgr.removeListeners();
+        mouseMgr = null;
+    }
+
+    /**
+     * Takes the next mouse event, applying the poll policy if there is none.
+     * @param reuse the object to store the event or null to create a new one
+     * @return the event or null if there is none
+     */
+    public MouseEvent pollMouse(MouseEvent reuse) {
+        if (mouseMgr==null) return null;
+        long ev = SpscLongRingBuffer.NO_ELEM;
+        try {
+            long seq = input.sequence();
+            ev = mouseMgr.pollEvent();
+            if (ev==SpscLongRingBuffer.NO_ELEM && idle(seq) && mouseMgr!=null)
+                ev = mouseMgr.pollEvent();
+        } catch (InterruptedException ignored) { }
+        blinkCursor();
+        if (ev==SpscLongRingBuffer.NO_ELEM) return null;
+        idlePolls = 0;
+        int type = MouseManager.type(ev), line = MouseManager.line(ev), col = MouseManager.col(ev);
+        return reuse==null ? new MouseEvent(type,line,col) : reuse.set(type,line,col);
+    }
+}
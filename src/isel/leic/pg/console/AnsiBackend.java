@@ -0,0 +1,325 @@
+package isel.leic.pg.console;
+
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Backend that shows the cells in a text terminal with ANSI escape sequences (ex: over SSH).
+ * <p>Keeps a shadow copy of the cells shown in the terminal. At the end of each batch of writes,
+ * only the cells that differ from the shadow are sent, in line order, moving the cursor only when
+ * the next cell is not adjacent and changing the colors only when they differ from the previous cell.
+ * All the sequences of one batch are sent in one write.</p>
+ * <p>The keyboard is read by a thread from the terminal in non canonical mode (set with <code>stty</code>).
+ * The terminal has no key release events, so a key is released some time after its last repetition
+ * (see {@link #setKeyReleaseMillis(int)}).</p>
+ * <p>The terminal mode and screen are restored by {@link #close()} or, if the program ends without it,
+ * by a shutdown hook.</p>
+ */
+public class AnsiBackend extends AbstractBackend {
+    private static final String CSI = "\u001b[";
+    public static final int DEFAULT_RELEASE_MILLIS = 500;
+    private static final int ESC_MILLIS = 30;          // Time to wait for the rest of an escape sequence
+
+    private final CellStore shadow;                     // Cells shown in the terminal
+    private final OutputStream out;
+    private final StringBuilder seq = new StringBuilder(4096);   // Sequences of the current batch
+    private int curLin = -1, curCol = -1;               // Cursor of the terminal, or -1 if unknown
+    private int curAttr = -1;                           // Attribute of the terminal, or -1 if unknown
+
+    private final Reader in;
+    private String savedMode;                           // Terminal mode to restore, or null
+    private Thread reader;
+    private volatile boolean closed = false;
+    private final AtomicBoolean restored = new AtomicBoolean();
+    private final Thread restoreHook = new Thread(this::restore, "AnsiBackend restore");
+    private volatile int releaseMillis = DEFAULT_RELEASE_MILLIS;  // Time that a key stays pressed without repetitions
+
+    /**
+     * Backend in the terminal of the standard input and output.
+     */
+    public AnsiBackend(int lines, int cols) {
+        this(lines, cols, new FileInputStream(FileDescriptor.in), new FileOutputStream(FileDescriptor.out), true);
+    }
+
+    /**
+     * @param input the stream of the keys, or null to not read keys
+     * @param output the stream of the terminal
+     * @param rawMode true to change the mode of the controlling terminal (/dev/tty) while this backend is open
+     */
+    public AnsiBackend(int lines, int cols, InputStream input, OutputStream output, boolean rawMode) {
+        super(lines, cols);
+        out = output;
+        shadow = new CellStore(lines, cols, -1);        // Differs from all cells, to send all in the first flush
+        if (rawMode) savedMode = stty("-g");
+        if (savedMode != null) stty("-icanon -echo -ixon min 1");
+        Runtime.getRuntime().addShutdownHook(restoreHook);
+        send(CSI + "?1049h" + CSI + "?25l" + CSI + "0m" + CSI + "2J");
+        in = input == null ? null : new InputStreamReader(input, StandardCharsets.UTF_8);
+        if (in != null) {
+            reader = new Thread(this::readKeys, "AnsiBackend keys");
+            reader.setDaemon(true);
+            reader.start();
+        }
+        synchronized (this) {
+            repaintCells(0, 0, lines, cols);
+            flushed();
+        }
+    }
+
+    // OUTPUT
+
+    @Override
+    void repaintCells(int lin, int col, int height, int width) {
+        char[] chars = grid.cells.chars, shown = shadow.chars;
+        int[] attrs = grid.cells.attrs, shownAttrs = shadow.attrs;
+        for (int l = lin; l < lin+height; ++l) {
+            int base = grid.cells.index(l, 0);
+            for (int c = col; c < col+width; ++c) {
+                int i = base + c;
+                char ch = chars[i];
+                int attr = attrs[i];
+                if (ch == shown[i] && attr == shownAttrs[i]) continue;
+                moveTo(l, c);
+                if (attr != curAttr) color(attr);
+                seq.append(ch < ' ' ? ' ' : ch);
+                shown[i] = ch;
+                shownAttrs[i] = attr;
+                curCol = c+1 < cols ? c+1 : -1;         // The cursor after the last column is uncertain
+            }
+        }
+    }
+
+    private void moveTo(int l, int c) {
+        if (l == curLin && c == curCol) return;
+        if (l == curLin && curCol >= 0 && c > curCol)
+            seq.append(CSI).append(c - curCol).append('C');
+        else
+            seq.append(CSI).append(l+1).append(';').append(c+1).append('H');
+        curLin = l;
+        curCol = c;
+    }
+
+    private void color(int attr) {
+        Color b = grid.palette.color(CharAttr.background(attr));
+        Color f = grid.palette.color(CharAttr.foreground(attr));
+        seq.append(CSI).append("38;2;").append(f.getRed()).append(';').append(f.getGreen()).append(';').append(f.getBlue())
+           .append(";48;2;").append(b.getRed()).append(';').append(b.getGreen()).append(';').append(b.getBlue())
+           .append('m');
+        curAttr = attr;
+    }
+
+    /**
+     * Moves the lines in the terminal with a scroll region (DECSTBM) and SU/SD.
+     * The lines exposed are sent by the next flush.
+     */
+    @Override
+    boolean scrollCells(int lin, int height, int n) {
+        seq.append(CSI).append(lin+1).append(';').append(lin+height).append('r')
+           .append(CSI).append(Math.abs(n)).append(n > 0 ? 'S' : 'T')
+           .append(CSI).append('r');
+        curLin = curCol = -1;                           // The reset of the scroll region moves the cursor
+        shadow.scroll(lin, height, n, ' ', -1);         // Differs from all cells, to send the lines exposed
+        return true;
+    }
+
+    @Override
+    void flushed() {
+        if (seq.length() == 0) return;
+        long start = metrics.paintStart();
+        send(seq);
+        seq.setLength(0);
+        metrics.paintEnd(start);
+    }
+
+    private void send(CharSequence s) {
+        if (closed) return;
+        try {
+            out.write(s.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException ignored) {
+            // The terminal was closed
+        }
+    }
+
+    // INPUT
+
+    private static final int MAX_HELD = 16;
+    private final int[] heldCodes = new int[MAX_HELD];      // Keys pressed, used only by the reader thread
+    private final long[] releaseAt = new long[MAX_HELD];    // Time to release each key pressed
+    private int held = 0;                                   // Number of keys pressed
+
+    private void readKeys() {
+        try {
+            while (!closed) {
+                int c;
+                if (held == 0)
+                    c = in.read();
+                else if (in.ready())
+                    c = in.read();
+                else {
+                    releaseExpired();
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+                    continue;
+                }
+                if (c < 0) break;
+                key((char) c);
+            }
+        } catch (IOException ignored) {
+            // End of the input
+        }
+    }
+
+    private void key(char c) throws IOException {
+        switch (c) {
+            case 27: escape(); return;
+            case '\r': case '\n': press('\n', KeyEvent.VK_ENTER); return;
+            case 8: case 127: press('\b', KeyEvent.VK_BACK_SPACE); return;
+            case '\t': press('\t', KeyEvent.VK_TAB); return;
+        }
+        int code = KeyEvent.getExtendedKeyCodeForChar(c);
+        press(c, code == KeyEvent.VK_UNDEFINED ? 0 : code);
+    }
+
+    /**
+     * Decodes the sequence after ESC: "[A".."[D", "[H", "[F", "[n~" and "OP".."OS".
+     */
+    private void escape() throws IOException {
+        if (!waitReady()) { press((char) 27, KeyEvent.VK_ESCAPE); return; }
+        int c = in.read();
+        if (c == 'O' && waitReady()) {
+            int f = in.read();
+            if (f >= 'P' && f <= 'S') press((char) 0, KeyEvent.VK_F1 + f - 'P');
+            return;
+        }
+        if (c != '[') { press((char) 27, KeyEvent.VK_ESCAPE); key((char) c); return; }
+        int n = 0;
+        while (waitReady()) {
+            c = in.read();
+            if (c >= '0' && c <= '9') { n = n*10 + c - '0'; continue; }
+            if (c == ';') { n = 0; continue; }
+            int code = 0;
+            switch (c) {
+                case 'A': code = KeyEvent.VK_UP; break;
+                case 'B': code = KeyEvent.VK_DOWN; break;
+                case 'C': code = KeyEvent.VK_RIGHT; break;
+                case 'D': code = KeyEvent.VK_LEFT; break;
+                case 'H': code = KeyEvent.VK_HOME; break;
+                case 'F': code = KeyEvent.VK_END; break;
+                case '~':
+                    switch (n) {
+                        case 1: case 7: code = KeyEvent.VK_HOME; break;
+                        case 2: code = KeyEvent.VK_INSERT; break;
+                        case 3: code = KeyEvent.VK_DELETE; break;
+                        case 4: case 8: code = KeyEvent.VK_END; break;
+                        case 5: code = KeyEvent.VK_PAGE_UP; break;
+                        case 6: code = KeyEvent.VK_PAGE_DOWN; break;
+                    }
+            }
+            if (code != 0) press((char) 0, code);
+            return;
+        }
+    }
+
+    private boolean waitReady() throws IOException {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ESC_MILLIS);
+        while (!in.ready()) {
+            if (System.nanoTime() - end > 0) return false;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /**
+     * Stores the key as typed (if c is not 0) and pressed (if code is not 0) until releaseMillis without repetitions.
+     */
+    private void press(char c, int code) {
+        if (code > 0) {
+            int i = 0;
+            while (i < held && heldCodes[i] != code) ++i;
+            if (i == held) {
+                if (held == MAX_HELD) release(0);
+                i = held++;
+                heldCodes[i] = code;
+            }
+            releaseAt[i] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(releaseMillis);
+            keyMgr.pressed(code);
+        }
+        if (c != 0) keyMgr.typed(c);
+    }
+
+    private void releaseExpired() {
+        long now = System.nanoTime();
+        for (int i = held-1; i >= 0; --i)
+            if (now - releaseAt[i] > 0) release(i);
+    }
+
+    private void release(int i) {
+        keyMgr.released(heldCodes[i]);
+        --held;
+        heldCodes[i] = heldCodes[held];
+        releaseAt[i] = releaseAt[held];
+    }
+
+    /**
+     * Time that a key stays pressed after its last repetition, since the terminal has no release events.
+     * <p>The first repetition of a held key arrives after the autorepeat delay of the terminal (usually 250
+     * to 600 ms), so a shorter time makes a held key blink released until then. A longer time delays
+     * the release of a key tapped once.</p>
+     * @param millis the time in milliseconds, {@link #DEFAULT_RELEASE_MILLIS} by default
+     */
+    public void setKeyReleaseMillis(int millis) {
+        if (millis <= 0) throw new IllegalArgumentException("Invalid release time "+millis);
+        releaseMillis = millis;
+    }
+
+    // LIFE CYCLE
+
+    private static String stty(String args) {
+        try {
+            Process p = new ProcessBuilder("sh", "-c", "stty " + args + " < /dev/tty").redirectErrorStream(true).start();
+            ByteArrayOutputStream res = new ByteArrayOutputStream();
+            byte[] buf = new byte[256];
+            try (InputStream is = p.getInputStream()) {
+                for (int n; (n = is.read(buf)) > 0; ) res.write(buf, 0, n);
+            }
+            return p.waitFor() == 0 ? res.toString().trim() : null;
+        } catch (IOException | InterruptedException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void setExitOnClose(boolean exit) { }     // The terminal has no close button
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        restore();
+        try {
+            Runtime.getRuntime().removeShutdownHook(restoreHook);
+        } catch (IllegalStateException ignored) {
+            // Already shutting down
+        }
+    }
+
+    /**
+     * Restores the screen, the cursor and the mode of the terminal, once.
+     * Without the lock, because the shutdown hook may run while other thread holds it.
+     */
+    private void restore() {
+        if (!restored.compareAndSet(false, true)) return;
+        try {
+            out.write((CSI + "0m" + CSI + "?25h" + CSI + "?1049l").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException ignored) {
+            // The terminal was closed
+        }
+        if (savedMode != null) stty(savedMode);
+    }
+}
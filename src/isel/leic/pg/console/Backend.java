@@ -0,0 +1,91 @@
+package isel.leic.pg.console;
+
+import isel.leic.pg.MouseEvent;
+
+import java.awt.*;
+
+/**
+ * Device where the console shows its cells and from where it reads the input.
+ * <p>{@link Frame} is the Swing window, {@link HeadlessBackend} keeps the cells only in memory.
+ * The other backends usually extend {@link AbstractBackend}, which implements the cursor, the writes
+ * and the input queues, leaving to the subclass only the output of the changed cells.</p>
+ * <p>The methods are called by the {@link isel.leic.pg.Console} class.</p>
+ */
+public interface Backend {
+    /**
+     * Policies of the polls (getChar, getKeyPressed, getMouseEvent) that find no input.
+     * <p>NON_BLOCKING returns immediately.
+     * ADAPTIVE waits 1 ms more for each consecutive poll without input, up to the limit time.
+     * EVENT waits up to the limit time.
+     * While waiting, the arrival of any input ends the wait.
+     * A poll that finds input never waits.</p>
+     */
+    int POLL_NON_BLOCKING = 0, POLL_ADAPTIVE = 1, POLL_EVENT = 2;
+
+    int getLines();
+    int getCols();
+
+    // OUTPUT
+
+    void put(char c);
+    void put(CharSequence s);
+    void put(char[] cs, int off, int len);
+    void putBlock(int lin, int col, char[][] block, int[][] fore, int[][] back, Color[] colors);
+    void fill(int lin, int col, int height, int width, char c, Color back, Color fore);
+    void clear();
+    void beginFrame();
+    void endFrame();
+    long getRepaintsSaved();
+
+    void setScroll(boolean on);
+    boolean isScroll();
+    void scroll(int lin, int height, int n);
+    void setScrollback(int lines);
+    int viewScrollback(int offset);
+    int getScrollbackSize();
+
+    void setBackColor(Color backColor);
+    void setForeColor(Color foreColor);
+
+    void cursor(int lin, int col);
+    int getLin();
+    int getCol();
+    void setCursorOn(boolean on);
+    boolean isCursorOn();
+
+    // INPUT
+
+    void setEcho(boolean echo);
+    boolean isEcho();
+    void setPollPolicy(int policy);
+    int getPollPolicy();
+
+    char getChar() throws InterruptedException;
+    char waitChar(long timeout) throws InterruptedException;
+    int getKeyPressed();
+    int waitKeyPressed(long timeout) throws InterruptedException;
+    boolean keyPressed(int code);
+    boolean anyKeyPressed();
+    void copyPressedKeys(long[] dst);
+
+    void enableMouseEvents(boolean drag, boolean move);
+    void disableMouseEvents();
+    MouseEvent pollMouse(MouseEvent reuse);
+
+    /**
+     * Counters and latencies of the rendering and of the input.
+     */
+    Metrics getMetrics();
+
+    // LIFE CYCLE
+
+    /**
+     * Defines if closing the device (ex: the window) terminates the application.
+     */
+    void setExitOnClose(boolean exit);
+
+    /**
+     * Releases the device.
+     */
+    void close();
+}
@@ -0,0 +1,228 @@
+package isel.leic.pg.console;
+
+import java.awt.*;
+
+/**
+ * The cells of a console, independent of the device where they are shown.
+ * <p>Keeps the visible cells, the back cells of the open frame and the region changed.
+ * The changes are reported to a {@link DirtyRegion.Target} at the end of the outermost batch.</p>
+ * <p>The lines that scroll off the top are kept in an optional {@link Scrollback}, that can be shown
+ * moving the view down. While the view is moved, the writes are made in the back cells.
+ * While a frame is open, the view keeps the cells last presented and the new view is shown at the end of the frame.</p>
+ */
+class CellGrid {
+
+	final int lines, cols;
+	final CellStore cells;
+	final Palette palette = new Palette();
+	private final DirtyRegion dirty;
+	private final DirtyRegion.Target target;
+	private int batch = 0;			// Depth of nested batches. Repaint requests are delayed until 0
+	private CellStore back;			// Cells written while a frame is open
+	private int frames = 0;			// Depth of nested frames. Writes go to the back cells while > 0
+	private Scrollback scrollback;	// Lines scrolled off the top, or null if not kept
+	private int view = 0;			// Lines of the scrollback to show. Writes go to the back cells while > 0
+	private int shown = 0;			// Lines of the scrollback in the visible cells. Differs from view only in a frame
+
+	private Color lastBkg, lastFrg;	// Colors of the last attribute packed
+	private int lastAttr;
+
+	CellGrid(int lines, int cols, Color bCol, Color fCol, DirtyRegion.Target target) {
+		this.lines = lines;
+		this.cols = cols;
+		this.target = target;
+		cells = new CellStore(lines, cols, attr(bCol,fCol));
+		dirty = new DirtyRegion(lines, cols);
+	}
+
+	int attr(Color b, Color f) {
+		if (b!=lastBkg || f!=lastFrg) {
+			lastAttr = CharAttr.of(palette.indexOf(b), palette.indexOf(f));
+			lastBkg = b;
+			lastFrg = f;
+		}
+		return lastAttr;
+	}
+
+	/*
+	 * Writes are made by the backend with its lock held.
+	 * Changed cells are marked in the dirty region and the repaint is requested
+	 * at the end of the outermost batch.
+	 */
+
+	void beginBatch() { ++batch; }
+
+	void endBatch() {
+		if (--batch==0 && !dirty.isEmpty())
+			dirty.flush(target);
+	}
+
+	private void changed(int lin, int col) {
+		dirty.mark(lin,col);
+		if (batch==0)
+			dirty.flush(target);
+	}
+
+	long getRepaintsSaved() { return dirty.getRepaintsSaved(); }
+	long getRepaints() { return dirty.getRepaints(); }
+	long getCellsChanged() { return dirty.getMarks(); }
+
+	/**
+	 * Starts a frame. Until the end of the frame the writes are made in the back cells and are not visible.
+	 */
+	void beginFrame() {
+		if (frames++ > 0 || view > 0) return;
+		copyToBack();
+	}
+
+	private void copyToBack() {
+		if (back==null) back = new CellStore(lines,cols,0);
+		back.copyFrom(cells);
+	}
+
+	/**
+	 * True if the writes are made in the back cells
+	 */
+	private boolean hidden() { return frames>0 || view>0; }
+
+	/**
+	 * Ends the frame presenting, in one repaint, the cells changed since its beginning.
+	 */
+	void endFrame() {
+		if (frames==0 || --frames > 0) return;
+		if (view > 0 || shown > 0) {
+			present();
+			return;
+		}
+		cells.copyChanged(back,dirty);
+		if (batch==0 && !dirty.isEmpty())
+			dirty.flush(target);
+	}
+
+	void setChr(int lin, int col, char c) {
+		if (hidden())
+			back.setChr(lin,col,c);
+		else if (cells.setChr(lin,col,c))
+			changed(lin, col);
+	}
+
+	void setChr(int lin, int col, char c, Color b, Color f) {
+		if (hidden())
+			back.setChr(lin,col,c,attr(b,f));
+		else if (cells.setChr(lin,col,c,attr(b,f)))
+			changed(lin,col);
+	}
+
+	void fill(int lin, int col, int height, int width, char c, Color b, Color f) {
+		if (hidden()) {
+			back.fill(lin,col,height,width,c,attr(b,f));
+			return;
+		}
+		cells.fill(lin,col,height,width,c,attr(b,f));
+		dirty.mark(lin,col,height,width);
+		if (batch==0)
+			dirty.flush(target);
+	}
+
+	char getChr(int lin, int col) {
+		return (hidden() ? back : cells).getChr(lin,col);
+	}
+
+	/**
+	 * Moves the lines of a region n lines up (n>0) or down (n<0), filling the lines exposed with spaces.
+	 * <p>The lines that leave the top of the console are added to the scrollback.
+	 * The target moves the cells shown, if it can, so only the lines exposed are repainted.</p>
+	 */
+	void scroll(int lin, int height, int n, Color b, Color f) {
+		int attr = attr(b,f);
+		CellStore store = hidden() ? back : cells;
+		int added = 0;
+		if (scrollback!=null && lin==0 && n>0)
+			for ( ; added<n && added<height ; ++added)
+				scrollback.add(store, added);
+		if (hidden()) {
+			back.scroll(lin,height,n,' ',attr);
+			if (view > 0) {
+				view = Math.min(view + added, scrollback.size());	// Keeps the same lines in the view
+				if (frames==0) {
+					shown = view;
+					showView();
+				}
+			}
+			return;
+		}
+		shift(lin,height,n,attr);
+		if (batch==0)
+			dirty.flush(target);
+	}
+
+	/**
+	 * Moves the visible cells, and the cells shown by the target if it can.
+	 */
+	private void shift(int lin, int height, int n, int attr) {
+		int abs = Math.abs(n);
+		boolean moved = abs < height && target.scrollCells(lin,height,n);
+		cells.scroll(lin,height,n,' ',attr);
+		if (moved) {
+			dirty.scroll(lin,height,n);
+			dirty.mark(n > 0 ? lin+height-abs : lin, 0, abs, cols);
+		} else
+			dirty.mark(lin,0,height,cols);
+	}
+
+	/**
+	 * Keeps the last lines that scroll off the top, or none.
+	 * @param capacity maximum number of lines kept, or 0 to keep none
+	 */
+	void setScrollback(int capacity) {
+		viewScrollback(0);
+		scrollback = capacity > 0 ? new Scrollback(capacity,cols) : null;
+	}
+
+	int getScrollbackSize() { return scrollback==null ? 0 : scrollback.size(); }
+
+	/**
+	 * Moves the view down, showing the last lines of the scrollback at the top.
+	 * <p>While the view is moved, the writes are kept in the back cells and are shown
+	 * when the view returns to 0. In a frame, the view changes only at the end of the frame.</p>
+	 * @param offset number of lines of the scrollback to show, 0 to show only the cells
+	 * @return the offset applied, limited to the lines kept in the scrollback
+	 */
+	int viewScrollback(int offset) {
+		offset = Math.max(0, Math.min(offset, getScrollbackSize()));
+		if (offset==view) return view;
+		if (view==0 && frames==0)
+			copyToBack();
+		view = offset;
+		if (frames==0)
+			present();
+		return view;
+	}
+
+	/**
+	 * Shows the view, moving first the visible cells by the difference to the view shown.
+	 */
+	private void present() {
+		int delta = view - shown;
+		if (delta != 0 && Math.abs(delta) < lines)
+			shift(0, lines, -delta, cells.getAttr(0,0));
+		shown = view;
+		showView();
+	}
+
+	/**
+	 * Copies to the visible cells the last lines of the scrollback followed by the back cells.
+	 */
+	private void showView() {
+		int size = getScrollbackSize();
+		for (int l = 0; l < lines; ++l) {
+			int src = l - view;		// Line of the back cells, or of the scrollback (from the end) if < 0
+			if (src >= 0)
+				cells.copyLineChanged(back, src, l, dirty);
+			else
+				scrollback.copyTo(size + src, cells, l, dirty);
+		}
+		if (batch==0 && !dirty.isEmpty())
+			dirty.flush(target);
+	}
+}
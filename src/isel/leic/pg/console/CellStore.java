@@ -0,0 +1,126 @@
+package isel.leic.pg.console;
+
+import java.util.Arrays;
+
+/**
+ * Characters and attributes of all cells packed in primitive arrays.
+ * <p>The cell (lin,col) is stored at index <code>lin*cols+col</code> of the arrays
+ * <code>chars</code> (character code) and <code>attrs</code> (colors packed by {@link CharAttr}).</p>
+ */
+class CellStore {
+    final int lines, cols;
+    final char[] chars;
+    final int[] attrs;
+
+    CellStore(int lines, int cols, int attr) {
+        this.lines = lines;
+        this.cols = cols;
+        chars = new char[lines*cols];
+        attrs = new int[lines*cols];
+        Arrays.fill(chars,' ');
+        Arrays.fill(attrs,attr);
+    }
+
+    int index(int lin, int col) { return lin*cols+col; }
+
+    /**
+     * Change the character code
+     * @return true if the old code is different
+     */
+    boolean setChr(int lin, int col, char c) {
+        int i = index(lin,col);
+        if (chars[i]==c)
+            return false;
+        chars[i] = c;
+        return true;
+    }
+
+    /**
+     * Change the character code and attributes
+     * @return true if the old code or attributes are different
+     */
+    boolean setChr(int lin, int col, char c, int attr) {
+        int i = index(lin,col);
+        if (chars[i]==c && attrs[i]==attr)
+            return false;
+        chars[i] = c;
+        attrs[i] = attr;
+        return true;
+    }
+
+    char getChr(int lin, int col) { return chars[index(lin,col)]; }
+
+    int getAttr(int lin, int col) { return attrs[index(lin,col)]; }
+
+    /**
+     * Fills a rectangle of cells with the same character code and attributes
+     */
+    void fill(int lin, int col, int height, int width, char c, int attr) {
+        if (width==cols) {      // Consecutive lines are contiguous in the arrays
+            int i = index(lin,0);
+            Arrays.fill(chars, i, i+height*cols, c);
+            Arrays.fill(attrs, i, i+height*cols, attr);
+            return;
+        }
+        for (int l = lin; l < lin+height; l++) {
+            int i = index(l,col);
+            Arrays.fill(chars, i, i+width, c);
+            Arrays.fill(attrs, i, i+width, attr);
+        }
+    }
+
+    /**
+     * Copies all cells from other store with the same size
+     */
+    void copyFrom(CellStore src) {
+        System.arraycopy(src.chars, 0, chars, 0, chars.length);
+        System.arraycopy(src.attrs, 0, attrs, 0, attrs.length);
+    }
+
+    /**
+     * Moves the lines of a region n lines up (n>0) or down (n<0), filling the lines exposed.
+     */
+    void scroll(int lin, int height, int n, char c, int attr) {
+        int abs = Math.abs(n);
+        if (abs >= height) {
+            fill(lin, 0, height, cols, c, attr);
+            return;
+        }
+        int from = n > 0 ? lin+n : lin, to = n > 0 ? lin : lin-n;
+        System.arraycopy(chars, index(from,0), chars, index(to,0), (height-abs)*cols);
+        System.arraycopy(attrs, index(from,0), attrs, index(to,0), (height-abs)*cols);
+        fill(n > 0 ? lin+height-abs : lin, 0, abs, cols, c, attr);
+    }
+
+    /**
+     * Copies one line of other store with the same number of columns
+     */
+    void copyLine(CellStore src, int srcLin, int lin) {
+        System.arraycopy(src.chars, src.index(srcLin,0), chars, index(lin,0), cols);
+        System.arraycopy(src.attrs, src.index(srcLin,0), attrs, index(lin,0), cols);
+    }
+
+    /**
+     * Copies the cells of one line of other store that are different, marking them changed.
+     */
+    void copyLineChanged(CellStore src, int srcLin, int lin, DirtyRegion dirty) {
+        for (int s = src.index(srcLin,0), i = index(lin,0), c = 0; c < cols; ++c, ++s, ++i)
+            if (chars[i]!=src.chars[s] || attrs[i]!=src.attrs[s]) {
+                chars[i] = src.chars[s];
+                attrs[i] = src.attrs[s];
+                dirty.mark(lin, c);
+            }
+    }
+
+    /**
+     * Copies the cells that are different in other store with the same size, marking them changed.
+     */
+    void copyChanged(CellStore src, DirtyRegion dirty) {
+        for (int i = 0; i < chars.length; i++)
+            if (chars[i]!=src.chars[i] || attrs[i]!=src.attrs[i]) {
+                chars[i] = src.chars[i];
+                attrs[i] = src.attrs[i];
+                dirty.mark(i/cols, i%cols);
+            }
+    }
+}
@@ -3,29 +3,33 @@ package isel.leic.pg.console;
 import java.awt.*;
 
 /**
- * Character and respective information about the foreground and background colors.
+ * Information about the foreground and background colors of a character, packed in an int.
+ * <p>Each color is an index of the {@link Palette}: the background in the upper 16 bits
+ * and the foreground in the lower 16 bits.</p>
  */
-class CharAttr {
-    private char c;				// Character code
-    private Color bkg, frg;		// Background and foreground colors
+final class CharAttr {
+    private CharAttr() { }
 
-    public CharAttr(Color bCol, Color fCol) {
-		setChr(' ', bCol, fCol);
-	}
+	static int of(int bkgIdx, int frgIdx) { return bkgIdx<<16 | frgIdx; }
+	static int background(int attr) { return attr>>>16; }
+	static int foreground(int attr) { return attr & 0xFFFF; }
 
 	private static final char[] chars = new char[1]; // Shared buffer for efficiency reasons
 
-	private static final int WIDTH_FACTOR = 20; // Correction factors to center the character
-	private static final int HEIGHT_FACTOR = 6;
+	static final int WIDTH_FACTOR = 20; // Correction factors to center the character
+	static final int HEIGHT_FACTOR = 6;
 
 	/**
 	 * Draw the character in a rectangle to a particular graphics context.
+	 * @param c the character code
+	 * @param bkg background color
+	 * @param frg foreground color
 	 * @param x of the upper left corner
 	 * @param y of the upper left corner
 	 * @param dx width of the rectangle
 	 * @param dy height of the rectangle
 	 */
-    public void paint(Graphics g, int x, int y, int dx, int dy) {
+    static void paint(Graphics g, char c, Color bkg, Color frg, int x, int y, int dx, int dy) {
         g.setColor(bkg);
         g.fillRect(x, y, dx, dy);
         FontMetrics fm = g.getFontMetrics();
@@ -35,40 +39,4 @@ class CharAttr {
         g.setColor(frg);
         g.drawChars(chars, 0, 1, x + (dx-w)/2 - w/WIDTH_FACTOR, y + (dy+h)/2 - h/HEIGHT_FACTOR);
     }
-
-    /**
-     * Change the character code
-     * @param chr
-     * @return true if the old code is different
-     */
-	public boolean setChr(char chr) {
-        if (c == chr)
-			return false;
-        c = chr;
-        return true;
-    }
-
-    /**
-     * Chage the character code and colors
-     * @param chr
-     * @param backColor
-     * @param foreColor
-     * @return true if the old code or any color is different
-     */
-	public boolean setChr(char chr, Color backColor, Color foreColor) {
-        if (c == chr && bkg == backColor && frg == foreColor)
-			return false;
-        bkg = backColor;
-        frg = foreColor;
-        c = chr;
-        return true;
-    }
-
-    /**
-     * Gets the charecter code
-     * @return the character code
-     */
-	public char getChr() {
-		return c;
-	}
 }
@@ -0,0 +1,125 @@
+package isel.leic.pg.console;
+
+/**
+ * Cells changed since the last repaint request.
+ * <p>Keeps, for each line, the span of columns changed. The flush merges the spans of
+ * consecutive lines in one rectangle, so a batch of writes results in a few repaint requests
+ * instead of one per character.</p>
+ */
+class DirtyRegion {
+    /**
+     * Receives the merged rectangles (in cells) to repaint.
+     */
+    interface Target {
+        void repaintCells(int lin, int col, int height, int width);
+
+        /**
+         * Moves the cells shown in the lines of a region n lines up (n>0) or down (n<0).
+         * Called before the cells are moved, so the cells not yet shown can still be painted.
+         * @return false if the device can not move the cells and the whole region must be repainted
+         */
+        default boolean scrollCells(int lin, int height, int n) { return false; }
+
+        /**
+         * Called after the last rectangle of each flush.
+         */
+        default void flushed() { }
+    }
+
+    private final int lines, cols;
+    private final int[] first, last;    // Span of columns changed in each line. Empty if first>last
+    private int minLin, maxLin;         // Range of lines changed
+
+    private long marks = 0;             // Number of cells marked
+    private long repaints = 0;          // Number of repaint requests
+
+    DirtyRegion(int lines, int cols) {
+        this.lines = lines;
+        this.cols = cols;
+        first = new int[lines];
+        last = new int[lines];
+        minLin = 0;
+        maxLin = lines-1;
+        reset();
+    }
+
+    private void reset() {
+        for (int l = minLin; l <= maxLin; l++) {
+            first[l] = cols;
+            last[l] = -1;
+        }
+        minLin = lines;
+        maxLin = -1;
+    }
+
+    /**
+     * Marks one cell changed.
+     */
+    void mark(int lin, int col) {
+        if (col < first[lin]) first[lin] = col;
+        if (col > last[lin]) last[lin] = col;
+        if (lin < minLin) minLin = lin;
+        if (lin > maxLin) maxLin = lin;
+        ++marks;
+    }
+
+    /**
+     * Marks a rectangle of cells changed.
+     */
+    void mark(int lin, int col, int height, int width) {
+        for (int l = lin; l < lin+height; l++) {
+            if (col < first[l]) first[l] = col;
+            if (col+width-1 > last[l]) last[l] = col+width-1;
+        }
+        if (lin < minLin) minLin = lin;
+        if (lin+height-1 > maxLin) maxLin = lin+height-1;
+        marks += height*width;
+    }
+
+    /**
+     * Moves the marks of the lines of a region n lines up (n>0) or down (n<0), as the cells were moved.
+     * The lines exposed are left unmarked.
+     */
+    void scroll(int lin, int height, int n) {
+        if (isEmpty()) return;
+        int abs = Math.min(Math.abs(n), height);
+        int from = n > 0 ? lin+abs : lin, to = n > 0 ? lin : lin+abs;
+        System.arraycopy(first, from, first, to, height-abs);
+        System.arraycopy(last, from, last, to, height-abs);
+        for (int l = n > 0 ? lin+height-abs : lin, end = l+abs; l < end; l++) {
+            first[l] = cols;
+            last[l] = -1;
+        }
+        if (lin < minLin) minLin = lin;
+        if (lin+height-1 > maxLin) maxLin = lin+height-1;
+    }
+
+    boolean isEmpty() { return maxLin < 0; }
+
+    /**
+     * Sends the merged rectangles to the target and clears the region.
+     * @param target receiver of the rectangles
+     */
+    void flush(Target target) {
+        for (int l = minLin; l <= maxLin; ) {
+            if (first[l] > last[l]) { ++l; continue; }
+            int top = l, fc = first[l], lc = last[l];
+            for (++l; l <= maxLin && first[l] <= last[l]; ++l) {
+                if (first[l] < fc) fc = first[l];
+                if (last[l] > lc) lc = last[l];
+            }
+            target.repaintCells(top, fc, l - top, lc - fc + 1);
+            ++repaints;
+        }
+        target.flushed();
+        reset();
+    }
+
+    /**
+     * Number of repaint requests avoided by merging the changed cells.
+     */
+    long getRepaintsSaved() { return marks - repaints; }
+
+    long getMarks() { return marks; }
+    long getRepaints() { return repaints; }
+}
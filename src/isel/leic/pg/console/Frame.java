@@ -1,194 +1,76 @@
 package isel.leic.pg.console;
 
-import isel.leic.pg.Console;
-import isel.leic.pg.MouseEvent;
-import isel.leic.pg.concurrent.*;
-
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
 
-@SuppressWarnings("serial")
-public class Frame extends JFrame {
-    private static final boolean LIMIT_CPU_USAGE = true;
-
-	private static final char CURSOR = '|';
-    private static final int BLINK_TIME = 500;
-	private static int minTime = 10;
+/**
+ * Backend that shows the cells in a Swing window and reads the keyboard and mouse events of that window.
+ * <p>The Frame is no longer a <code>JFrame</code>: the code that used it as the window
+ * should use {@link #getWindow()}.</p>
+ */
+public class Frame extends AbstractBackend {
 
-	private final int lines, cols;
-
-	private int lin=0, col=0;
-    private boolean echo = false;
-	private Color bColor = Color.BLACK;
-    private Color fColor = Color.WHITE;
-    
+    final JFrame window;
     private final TextBox txt;
-    private final KeyManager keyMgr;
-    private MouseManager mouseMgr;
-
-    public static void setLimitTime(int minTime) {
-        Frame.minTime = minTime;
-    }
 
     public Frame(String title, int lines, int cols, int fontSize, float heightFactor, float widthFactor) {
-		super(title);
-		this.lines = lines; this.cols = cols;
+		super(lines, cols);
+		window = new JFrame(title);
 		Font f = new Font(Font.MONOSPACED,Font.BOLD, fontSize);
-        txt = new TextBox(lines,cols,bColor,fColor,f);
+        txt = new TextBox(grid,f,metrics,this);
         txt.setPreferredSize(new Dimension((int) (cols * fontSize * widthFactor), (int) (lines * fontSize * heightFactor)));
-        getContentPane().add( txt );
-        addKeyListener(keyMgr = new KeyManager(this));
-        addFocusListener(new FocusAdapter() {
+        window.getContentPane().add( txt );
+        window.addKeyListener(keyMgr);
+        window.addFocusListener(new FocusAdapter() {
             @Override
             public void focusLost(FocusEvent e) {
                 keyMgr.clearPressedKeys();
                 if (mouseMgr!=null) mouseMgr.clearEvents();
             }
         });
-    	setLocationByPlatform(true);
-		setResizable(false);
-    	pack();
-		toFront();
-		setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
-		setVisible(true);
-	}
-
-    public void setEcho(boolean echo) { this.echo = echo; }
-    public boolean isEcho() { return echo; }
-
-    public int getLin() { return lin; }
-    public int getCol() { return col; }
-
-    public int getCellWidth() { return txt.getWidth()/cols; }
-    public int getCellHeight() { return txt.getHeight()/lines; }
-
-    public void setBackColor(Color backColor) { bColor = backColor; }
-    public void setForeColor(Color foreColor) { fColor = foreColor; }
-
-	public synchronized void put(char c) {
-	  if (c=='\n') {
-		  if (cursorOn && blinkOn)
-			  txt.setChr(lin,col,cursorChar);
-		  if (++lin==lines) lin=0;
-		  col = 0;
-	  } else {
-		  txt.setChr(lin,col,c,bColor,fColor);
-		  if (++col==cols) {
-			  col=0;
-			  if (++lin==lines) lin=0;
-		  }
-	  }
-	  updateCursor();
-	}
-
-	public void put(String s) {
-		for(int i=0 ; i<s.length() ; ++i) put(s.charAt(i));
+    	window.setLocationByPlatform(true);
+		window.setResizable(false);
+    	window.pack();
+		window.toFront();
+		window.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+		window.setVisible(true);
 	}
 
-    // KEYBOARD INPUT
-
-    public char getChar() throws InterruptedException {
-        blinkCursor();
-        return keyMgr.getChar(minTime);
+    @Override
+    void repaintCells(int lin, int col, int height, int width) {
+        txt.repaintCells(lin, col, height, width);
     }
 
-    public boolean keyPressed(int code) { return keyMgr.isPressed(code); }
-    public boolean anyKeyPressed()      { return keyMgr.anyPressed(); }
-
-    public int getKeyPressed() {
-        int key = 0;
-        try {
-            if (LIMIT_CPU_USAGE) {
-                long tm = System.currentTimeMillis();
-                key = keyMgr.getAnyPressed(minTime);
-                sleepRemainder(tm, minTime);
-            } else
-                key = keyMgr.getAnyPressed(0);
-        } catch (InterruptedException ignored) { }
-        blinkCursor();
-        return key != PositiveIntSet.NO_ELEM ? key :
-                (mouseMgr == null || mouseMgr.isEmpty()) ? Console.NO_KEY : Console.MOUSE_EVENT;
+    @Override
+    boolean scrollCells(int lin, int height, int n) {
+        return txt.scrollCells(lin, height, n);
     }
 
-    private static void sleepRemainder(long startTm, long totalTm) throws InterruptedException {
-        long elapsed = System.currentTimeMillis() - startTm;
-        if (elapsed < totalTm)
-           Thread.sleep(totalTm - elapsed);
-    }
+    @Override
+    void flushed() { txt.flushed(); }
 
-    // CURSOR MANAGER
-
-    private boolean cursorOn=false;
-    private char cursorChar;
-    private boolean blinkOn;
-    private long blinkTime=0;
-
-    private void updateCursor() {
-        if (cursorOn) {
-            cursorChar = txt.getChr(lin,col);
-            if (blinkOn)
-                txt.setChr(lin,col,CURSOR);
-        }
-    }
+    /**
+     * The Swing window of the console.
+     */
+    public JFrame getWindow() { return window; }
 
-    public void cursor(int l, int c) {
-		if (l==lin && c==col) return;
-	    if (cursorOn && blinkOn)
-            txt.setChr(lin,col,cursorChar);
-		lin = l;
-		if (lin>=lines) lin=lines-1;
-		col = c;
-		if (col>=cols) col=cols-1;
-		updateCursor();
-	}
-	
-	public void setCursorOn(boolean on) {
-		if (cursorOn==on) return;
-		cursorOn=on;
-		if (on) {
-		  blinkOn=false;
-		  cursorChar=txt.getChr(lin,col);
-		  blinkCursor();
-		} else
-		  if (blinkOn) txt.setChr(lin,col,cursorChar); 
-	}
-    public boolean isCursorOn() {
-        return cursorOn;
-    }
-	
-	private void blinkCursor() {
-		if (!cursorOn || System.currentTimeMillis() < blinkTime) return;
-		blinkOn = !blinkOn;
-		txt.setChr(lin,col,blinkOn ? CURSOR : cursorChar);
-		blinkTime = System.currentTimeMillis() + BLINK_TIME;
-	}
+    public int getCellWidth() { return txt.getWidth()/cols; }
+    public int getCellHeight() { return txt.getHeight()/lines; }
 
-    public void enableMouseEvents(boolean drag) {
-        if (mouseMgr!=null)
-            mouseMgr.removeListeners();
-        mouseMgr = new MouseManager(this,drag);
+    @Override
+    MouseManager newMouseManager(boolean drag, boolean move) {
+        MouseManager mgr = super.newMouseManager(drag, move);
+        mgr.attach(this);
+        return mgr;
     }
 
-    public void disableMouseEvents() {
-        if (mouseMgr==null) return;
-        mouseMgr.removeListeners();
-        mouseMgr = null;
+    @Override
+    public void setExitOnClose(boolean exit) {
+        window.setDefaultCloseOperation(exit ? JFrame.EXIT_ON_CLOSE : JFrame.DO_NOTHING_ON_CLOSE);
     }
 
-    public MouseEvent getMouseEvent() {
-        if (mouseMgr==null) return null;
-        MouseEvent ev = null;
-        try {
-            if (LIMIT_CPU_USAGE) {
-                long tm = System.currentTimeMillis();
-                ev = mouseMgr.getEvent(minTime);
-                sleepRemainder(tm, minTime);
-            } else
-                ev = mouseMgr.getEvent(0);
-        } catch (InterruptedException ignored) { }
-        blinkCursor();
-        return ev;
-    }
+    @Override
+    public void close() { window.dispose(); }
 }
@@ -0,0 +1,86 @@
+package isel.leic.pg.console;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of cell images already rendered.
+ * <p>Each combination of character and attributes (background and foreground colors) is rendered
+ * once by {@link CharAttr#paint} to a tile with the cell size, which is then painted with one drawImage.</p>
+ * <p>The least recently used tiles are discarded when the cache has more than {@link #MAX_TILES},
+ * and all tiles are discarded if the cell size or the font changes.</p>
+ * <p>Not thread safe: used only by its {@link GridPainter}, with the lock of the backend held
+ * (in the event dispatch thread for the window).</p>
+ */
+class GlyphAtlas {
+    static final int MAX_TILES = 2048;
+
+    private static final class Key {
+        char c;
+        int attr;
+        Key(char c, int attr) { this.c = c; this.attr = attr; }
+        @Override
+        public int hashCode() { return attr*31 + c; }
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key)o).c==c && ((Key)o).attr==attr;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final Map<Key,Image> tiles = new LinkedHashMap<Key,Image>(256,0.75F,true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key,Image> eldest) {
+            return size() > MAX_TILES;
+        }
+    };
+    private final Key probe = new Key(' ',0);   // Reused in lookups to avoid allocations
+
+    private final Palette palette;
+    private int width, height;
+    private Font font;
+
+    GlyphAtlas(Palette palette) {
+        this.palette = palette;
+    }
+
+    /**
+     * Gets the tile of one cell, rendering it if is not in the cache.
+     * @param c the character code
+     * @param attr the packed attributes
+     * @param dx width of the cell
+     * @param dy height of the cell
+     * @param font the font to render the character
+     * @param gc the configuration of the destination, or null
+     * @return the image of the cell
+     */
+    Image tile(char c, int attr, int dx, int dy, Font font, GraphicsConfiguration gc) {
+        if (dx!=width || dy!=height || font!=this.font) {
+            tiles.clear();
+            width = dx;
+            height = dy;
+            this.font = font;
+        }
+        probe.c = c;
+        probe.attr = attr;
+        Image img = tiles.get(probe);
+        if (img==null) {
+            img = render(c, attr, gc);
+            tiles.put(new Key(c,attr), img);
+        }
+        return img;
+    }
+
+    private Image render(char c, int attr, GraphicsConfiguration gc) {
+        Image img = gc!=null ? gc.createCompatibleImage(width, height)
+                             : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics g = img.getGraphics();
+        g.setFont(font);
+        CharAttr.paint(g, c, palette.color(CharAttr.background(attr)),
+                palette.color(CharAttr.foreground(attr)), 0, 0, width, height);
+        g.dispose();
+        return img;
+    }
+}
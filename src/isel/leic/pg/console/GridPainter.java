@@ -0,0 +1,104 @@
+package isel.leic.pg.console;
+
+import java.awt.*;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+
+/**
+ * Paints the cells of a {@link CellStore} in a graphics context.
+ * <p>Only the lines and columns covered by the clip are visited. In each line, adjacent cells with
+ * the same background are filled with one fillRect and adjacent characters with the same foreground
+ * are drawn with one call. An isolated cell is painted with one blit of the {@link GlyphAtlas}.</p>
+ * <p>Not thread safe: the painter and its atlas are used with the lock of the backend held.</p>
+ */
+class GridPainter {
+    private final Palette palette;
+    private final GlyphAtlas atlas;
+    private final boolean[] done;                       // Cells of the line already painted with the atlas
+    private final Point2D.Float pos = new Point2D.Float();  // Reused to place the glyphs
+
+    GridPainter(Palette palette, int cols) {
+        this.palette = palette;
+        atlas = new GlyphAtlas(palette);
+        done = new boolean[cols];
+    }
+
+    /**
+     * Paints the cells that intersect the clip.
+     * @param g the graphics context, with the font to use
+     * @param cells the cells to paint
+     * @param clip the area to paint
+     * @param dx width of each cell
+     * @param dy height of each cell
+     * @param gc the configuration of the destination, or null
+     */
+    void paint(Graphics g, CellStore cells, Rectangle clip, int dx, int dy, GraphicsConfiguration gc) {
+        if (dx<=0 || dy<=0) return;
+        int l0 = Math.max(clip.y / dy, 0), l1 = Math.min((clip.y+clip.height-1) / dy, cells.lines-1);
+        int c0 = Math.max(clip.x / dx, 0), c1 = Math.min((clip.x+clip.width-1) / dx, cells.cols-1);
+        if (l0>l1 || c0>c1) return;
+        Font font = g.getFont();
+        FontMetrics fm = g.getFontMetrics();
+        for(int l=l0 ; l<=l1 ; ++l) {
+            int y = l*dy;
+            int base = cells.index(l,0);
+            paintBackgrounds(g, cells, base, c0, c1, y, dx, dy, font, gc);
+            paintForegrounds(g, cells, base, c0, c1, y, dx, dy, font, fm);
+        }
+    }
+
+    private void paintBackgrounds(Graphics g, CellStore cells, int base, int c0, int c1, int y, int dx, int dy,
+                                  Font font, GraphicsConfiguration gc) {
+        int[] attrs = cells.attrs;
+        for(int c=c0 ; c<=c1 ; ) {
+            int bkg = CharAttr.background(attrs[base+c]);
+            int end = c+1;
+            while (end<=c1 && CharAttr.background(attrs[base+end])==bkg) ++end;
+            if (end-c == 1) {
+                g.drawImage(atlas.tile(cells.chars[base+c], attrs[base+c], dx, dy, font, gc), c*dx, y, null);
+                done[c] = true;
+            } else {
+                g.setColor(palette.color(bkg));
+                g.fillRect(c*dx, y, (end-c)*dx, dy);
+                for(int i=c ; i<end ; ++i) done[i] = false;
+            }
+            c = end;
+        }
+    }
+
+    private void paintForegrounds(Graphics g, CellStore cells, int base, int c0, int c1, int y, int dx, int dy,
+                                  Font font, FontMetrics fm) {
+        char[] chars = cells.chars;
+        int[] attrs = cells.attrs;
+        for(int c=c0 ; c<=c1 ; ) {
+            if (done[c] || chars[base+c]==' ') { ++c; continue; }
+            int frg = CharAttr.foreground(attrs[base+c]);
+            int end = c+1, last = c;
+            for( ; end<=c1 && !done[end] && CharAttr.foreground(attrs[base+end])==frg ; ++end)
+                if (chars[base+end]!=' ') last = end;
+            g.setColor(palette.color(frg));
+            drawRun(g, chars, base+c, last-c+1, c*dx, y, dx, dy, font, fm);
+            c = end;
+        }
+    }
+
+    private void drawRun(Graphics g, char[] chars, int from, int len, int x, int y, int dx, int dy,
+                         Font font, FontMetrics fm) {
+        int w = fm.charWidth(chars[from]);
+        int h = fm.getAscent();
+        int gx = x + (dx-w)/2 - w/CharAttr.WIDTH_FACTOR;
+        int gy = y + (dy+h)/2 - h/CharAttr.HEIGHT_FACTOR;
+        if (len==1 || fm.charWidth('M')==dx) {     // The font advance is the cell width
+            g.drawChars(chars, from, len, gx, gy);
+            return;
+        }
+        char[] txt = Arrays.copyOfRange(chars, from, from+len);
+        GlyphVector gv = font.createGlyphVector(((Graphics2D) g).getFontRenderContext(), txt);
+        for(int i=0 ; i<len ; ++i) {
+            pos.setLocation(i*dx, 0);
+            gv.setGlyphPosition(i, pos);
+        }
+        ((Graphics2D) g).drawGlyphVector(gv, gx, gy);
+    }
+}
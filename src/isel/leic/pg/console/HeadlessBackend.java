@@ -0,0 +1,155 @@
+package isel.leic.pg.console;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Backend without window, that keeps the cells only in memory.
+ * <p>Works with <code>java.awt.headless=true</code>. The input is injected with
+ * {@link #typeChar(char)}, {@link #pressKey(int)}, {@link #releaseKey(int)} and {@link #mouse(int, int, int)}.</p>
+ * <p>Optionally, the cells are also painted in a {@link BufferedImage}, updated only in the changed
+ * region when {@link #getImage()} is called.</p>
+ */
+public class HeadlessBackend extends AbstractBackend {
+
+    private final BufferedImage image;
+    private final GridPainter painter;
+    private final Font font;
+    private final int cellWidth, cellHeight;
+    private final Rectangle changed = new Rectangle();  // Region of the image to paint, in pixels
+
+    /**
+     * Backend with the cells only in memory, without image.
+     */
+    public HeadlessBackend(int lines, int cols) {
+        this(lines, cols, null, 0, 0);
+    }
+
+    /**
+     * Backend with the cells in memory and painted in an image.
+     * @param font the font of the characters, or null to not use an image
+     * @param cellWidth width of each cell in pixels
+     * @param cellHeight height of each cell in pixels
+     */
+    public HeadlessBackend(int lines, int cols, Font font, int cellWidth, int cellHeight) {
+        super(lines, cols);
+        this.font = font;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        if (font != null) {
+            image = new BufferedImage(cols * cellWidth, lines * cellHeight, BufferedImage.TYPE_INT_RGB);
+            painter = new GridPainter(grid.palette, cols);
+            changed.setBounds(0, 0, image.getWidth(), image.getHeight());
+        } else {
+            image = null;
+            painter = null;
+        }
+    }
+
+    @Override
+    void repaintCells(int lin, int col, int height, int width) {
+        if (image == null) return;
+        int x = col*cellWidth, y = lin*cellHeight, w = width*cellWidth, h = height*cellHeight;
+        if (changed.isEmpty()) changed.setBounds(x, y, w, h);
+        else changed.add(new Rectangle(x, y, w, h));
+    }
+
+    /**
+     * The image with the cells, painted in the region changed since the last call.
+     * @return the image or null if this backend has no image
+     */
+    public synchronized BufferedImage getImage() {
+        if (image == null) return null;
+        paintChanged();
+        return image;
+    }
+
+    private void paintChanged() {
+        if (!changed.isEmpty()) {
+            long start = metrics.paintStart();
+            Graphics2D g = image.createGraphics();
+            try {
+                g.setFont(font);
+                g.setClip(changed);
+                painter.paint(g, grid.cells, changed, cellWidth, cellHeight, null);
+            } finally {
+                g.dispose();
+            }
+            metrics.paintEnd(start);
+            changed.setSize(0, 0);
+        }
+    }
+
+    @Override
+    boolean scrollCells(int lin, int height, int n) {
+        if (image == null) return true;
+        paintChanged();         // The cells not yet painted are moved with the others
+        int dist = Math.abs(n) * cellHeight, y = lin * cellHeight, h = height * cellHeight;
+        Graphics g = image.createGraphics();
+        try {
+            g.copyArea(0, n > 0 ? y + dist : y, image.getWidth(), h - dist, 0, n > 0 ? -dist : dist);
+        } finally {
+            g.dispose();
+        }
+        return true;
+    }
+
+    /**
+     * The char shown in a cell, including the cursor if it is visible.
+     */
+    public synchronized char getCell(int lin, int col) { return grid.cells.getChr(lin, col); }
+
+    /**
+     * The background color shown in a cell.
+     */
+    public synchronized Color getBackground(int lin, int col) {
+        return grid.palette.color(CharAttr.background(grid.cells.getAttr(lin, col)));
+    }
+
+    /**
+     * The foreground color shown in a cell.
+     */
+    public synchronized Color getForeground(int lin, int col) {
+        return grid.palette.color(CharAttr.foreground(grid.cells.getAttr(lin, col)));
+    }
+
+    /**
+     * The text shown in one line.
+     */
+    public synchronized String getLine(int lin) {
+        return new String(grid.cells.chars, grid.cells.index(lin, 0), cols);
+    }
+
+    // INPUT INJECTION
+
+    /**
+     * Injects a typed char, as the keyTyped event of a window.
+     */
+    public void typeChar(char c) { keyMgr.typed(c); }
+
+    /**
+     * Injects the press of a key.
+     * @param code the key code (ex: KeyEvent.VK_LEFT)
+     */
+    public void pressKey(int code) { keyMgr.pressed(code); }
+
+    /**
+     * Injects the release of a key.
+     */
+    public void releaseKey(int code) { keyMgr.released(code); }
+
+    /**
+     * Injects a mouse event, if the mouse events are enabled.
+     * @param type the type of the event (ex: MouseEvent.CLICK)
+     */
+    public void mouse(int type, int line, int col) {
+        MouseManager mgr = mouseMgr;
+        if (mgr != null) mgr.inject(type, line, col);
+    }
+
+    @Override
+    public void setExitOnClose(boolean exit) { }     // There is nothing to close
+
+    @Override
+    public void close() { }
+}
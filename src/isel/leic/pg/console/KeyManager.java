@@ -2,20 +2,35 @@ package isel.leic.pg.console;
 
 import isel.leic.pg.concurrent.*;
 import java.awt.event.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class KeyManager implements KeyListener {
     static final int KEYS_BUFFER_SIZE = 128;
-    private final CharRingBuffer typedChars = new CharRingBuffer(KEYS_BUFFER_SIZE,true);
+    /*
+     * Each typed char is stored with the time it arrived: nanoTime << 16 | char
+     * The 48 bits of the time wrap around each 78 hours, so the arrival is reconstructed relative to the current time.
+     */
+    private static final long TIME_MASK = 0xFFFFFFFFFFFFL;
+    private final SpscLongRingBuffer typedChars = new SpscLongRingBuffer(KEYS_BUFFER_SIZE);
 
-    static final int PRESSED_KEYS_BUFFER_SIZE = 32;
-    private final PositiveIntSet pressedKeys = new PositiveIntSet(PRESSED_KEYS_BUFFER_SIZE);
+    private final KeyBitSet pressedKeys = new KeyBitSet();
+    private final AtomicLong lastPress = new AtomicLong();   // Time the last key was pressed (code in the lower 16 bits), 0 if taken
 
-    private final Frame frame;
-    KeyManager(Frame frame) { this.frame = frame; }
+    private final AbstractBackend backend;
+    private final EventSignal signal;
+    KeyManager(AbstractBackend backend, EventSignal signal) { this.backend = backend; this.signal = signal; }
 
+    private static long stamp(int value) { return System.nanoTime() << 16 | (value & 0xFFFF); }
+    private static long arrival(long stamped) {
+        long now = System.nanoTime();
+        return now - ((now - (stamped >>> 16)) & TIME_MASK);
+    }
 
     char getChar(long timeout) throws InterruptedException {
-        return typedChars.get(timeout);
+        long c = typedChars.get(timeout);
+        if (c == SpscLongRingBuffer.NO_ELEM) return 0;
+        backend.metrics.inputTaken(arrival(c));
+        return (char) c;
     }
     boolean isPressed(int code) {
         return pressedKeys.contains(code);
@@ -23,26 +38,54 @@ public class KeyManager implements KeyListener {
     boolean anyPressed() {
         return !pressedKeys.isEmpty();
     }
+    void copyPressed(long[] dst) {
+        pressedKeys.copyTo(dst);
+    }
+    long getDropped() {
+        return typedChars.getDropped();
+    }
     int getAnyPressed(long timeout) throws InterruptedException {
-        return pressedKeys.getAny(timeout);
+        int code = pressedKeys.getAny(timeout);
+        long last = lastPress.get();
+        if (last != 0 && code == (int) (last & 0xFFFF) && lastPress.compareAndSet(last, 0))    // The first read of the last key pressed
+            backend.metrics.inputTaken(arrival(last));
+        return code;
     }
 
     @Override
     public void keyTyped(KeyEvent e) {
-        char c = e.getKeyChar();
-        if (frame.isEcho() && isPrintable(c))
-            frame.put(c);
-        typedChars.put(c);
+        backend.metrics.inputDispatched(e.getWhen());
+        typed(e.getKeyChar());
     }
 
     @Override
     public void keyPressed(KeyEvent e) {
-        pressedKeys.add(e.getKeyCode());
+        backend.metrics.inputDispatched(e.getWhen());
+        pressed(e.getKeyCode());
     }
 
     @Override
-    public void keyReleased(KeyEvent e) {
-        pressedKeys.remove(e.getKeyCode());
+    public void keyReleased(KeyEvent e) { released(e.getKeyCode()); }
+
+    /*
+     * Input of the keyboard, from the listener or injected by the backends without window.
+     */
+
+    void typed(char c) {
+        if (backend.isEcho() && isPrintable(c))
+            backend.put(c);
+        typedChars.put(stamp(c));
+        signal.post();
+    }
+
+    void pressed(int code) {
+        pressedKeys.add(code);
+        lastPress.set(stamp(code));
+        signal.post();
+    }
+
+    void released(int code) {
+        pressedKeys.remove(code);
     }
 
     private boolean isPrintable(char c) {
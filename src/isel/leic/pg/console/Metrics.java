@@ -0,0 +1,210 @@
+package isel.leic.pg.console;
+
+import isel.leic.pg.concurrent.LatencyHistogram;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies of the rendering and of the input of one backend.
+ * <p>The counters of repaints and changed cells are always kept by the {@link DirtyRegion}
+ * and the counters of lost input by the ring buffers, so they cost nothing more.
+ * The paint times are measured only while enabled; when disabled the cost is one volatile read per paint.</p>
+ * <p>While enabled, the latency of the input is also traced from the event to the screen:
+ * the delay of the AWT dispatch, the time in the queue until taken by the program,
+ * and the time until the end of the first paint that shows cells written after the event was taken.</p>
+ * <p>Exposed as a JMX MBean by {@link #register()} and as a snapshot by {@link #stats()}.</p>
+ */
+public class Metrics implements MetricsMXBean {
+    public static final String OBJECT_NAME = "isel.leic.pg:type=Console";
+
+    /**
+     * Values of the metrics captured at one instant, returned by {@link isel.leic.pg.Console#stats()}.
+     */
+    public static class Stats {
+        /** Number of repaint requests, each one for a rectangle of cells */
+        public final long repaints;
+        /** Number of cell writes that changed the cells shown */
+        public final long cellsChanged;
+        /** Cells changed per second since the last reset */
+        public final double cellsPerSecond;
+        /** Number of paints measured */
+        public final long paints;
+        /** Paint time in microseconds: average, median, 99th percentile and maximum */
+        public final double paintMeanMicros, paintP50Micros, paintP99Micros, paintMaxMicros;
+        /** Number of typed chars and mouse events lost because the queues were full */
+        public final long charsDropped, mouseDropped;
+        /** Number of input events traced until shown */
+        public final long inputs;
+        /** Input latency in milliseconds, median and 99th percentile: AWT dispatch, waiting in the queue and until painted */
+        public final double dispatchP50Millis, dispatchP99Millis, queueP50Millis, queueP99Millis, inputP50Millis, inputP99Millis;
+
+        Stats(Metrics m) {
+            repaints = m.getRepaints();
+            cellsChanged = m.getCellsChanged();
+            cellsPerSecond = m.getCellsPerSecond();
+            paints = m.paint.count();
+            paintMeanMicros = m.paint.mean() / 1e3;
+            paintP50Micros = m.paint.percentile(50) / 1e3;
+            paintP99Micros = m.paint.percentile(99) / 1e3;
+            paintMaxMicros = m.paint.max() / 1e3;
+            charsDropped = m.getCharsDropped();
+            mouseDropped = m.getMouseEventsDropped();
+            inputs = m.toPaint.count();
+            dispatchP50Millis = m.dispatch.percentile(50) / 1e6;
+            dispatchP99Millis = m.dispatch.percentile(99) / 1e6;
+            queueP50Millis = m.queue.percentile(50) / 1e6;
+            queueP99Millis = m.queue.percentile(99) / 1e6;
+            inputP50Millis = m.toPaint.percentile(50) / 1e6;
+            inputP99Millis = m.toPaint.percentile(99) / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("repaints=%d cells=%d (%.0f/s) paints=%d paint(us) mean=%.1f p50=%.1f p99=%.1f max=%.1f" +
+                    " dropped chars=%d mouse=%d inputs=%d input(ms) dispatch p50=%.2f p99=%.2f queue p50=%.2f p99=%.2f" +
+                    " to paint p50=%.2f p99=%.2f", repaints, cellsChanged, cellsPerSecond, paints,
+                    paintMeanMicros, paintP50Micros, paintP99Micros, paintMaxMicros, charsDropped, mouseDropped,
+                    inputs, dispatchP50Millis, dispatchP99Millis, queueP50Millis, queueP99Millis, inputP50Millis, inputP99Millis);
+        }
+    }
+
+    private final AbstractBackend backend;
+    private volatile boolean enabled = false;
+    private boolean registered = false;
+    final LatencyHistogram paint = new LatencyHistogram();
+    final LatencyHistogram dispatch = new LatencyHistogram(), queue = new LatencyHistogram(), toPaint = new LatencyHistogram();
+    /*
+     * Arrival time of the oldest input taken and not yet followed by a flush of cells written by the thread
+     * that took it, and of the oldest input whose cells were flushed but not yet painted. 0 if none.
+     * Other threads also flush cells (ex: the echo of typed chars in the event dispatch thread),
+     * but those cells are not the answer of the program to the input.
+     */
+    private final AtomicLong taken = new AtomicLong(), written = new AtomicLong();
+    private volatile Thread consumer;                   // Thread that took the last input
+    private long baseRepaints, baseCells, baseChars, baseMouse;   // Values at the last reset
+    private long resetTime = System.nanoTime();
+
+    Metrics(AbstractBackend backend) { this.backend = backend; }
+
+    /**
+     * Start of a measure of paint time.
+     * @return the current time, or 0 if the metrics are disabled
+     */
+    long paintStart() { return enabled ? System.nanoTime() : 0; }
+
+    /**
+     * End of a measure of paint time.
+     * @param start the value returned by {@link #paintStart()}
+     */
+    void paintEnd(long start) {
+        if (start == 0) return;
+        long end = System.nanoTime();
+        paint.record(end - start);
+        long input = written.getAndSet(0);
+        if (input != 0) toPaint.record(end - input);
+    }
+
+    /**
+     * An input event was delivered by the AWT.
+     * @param when the time of the event, in the milliseconds of System.currentTimeMillis()
+     */
+    void inputDispatched(long when) {
+        if (enabled) dispatch.record((System.currentTimeMillis() - when) * 1000000);
+    }
+
+    /**
+     * An input event was taken from the queue by the program.
+     * @param arrival the System.nanoTime() when the event was stored in the queue
+     */
+    void inputTaken(long arrival) {
+        if (!enabled) return;
+        queue.record(System.nanoTime() - arrival);
+        consumer = Thread.currentThread();
+        taken.compareAndSet(0, arrival);
+    }
+
+    /**
+     * Cells were flushed to be painted. If the flush is made by the thread that took the inputs,
+     * they are shown by the next paint.
+     */
+    void cellsFlushed() {
+        if (Thread.currentThread() != consumer) return;
+        long input = taken.getAndSet(0);
+        if (input != 0) written.compareAndSet(0, input);
+    }
+
+    @Override public boolean isEnabled() { return enabled; }
+    @Override public void setEnabled(boolean on) { enabled = on; }
+
+    @Override public long getRepaints() { return backend.grid.getRepaints() - baseRepaints; }
+    @Override public long getCellsChanged() { return backend.grid.getCellsChanged() - baseCells; }
+    @Override public double getCellsPerSecond() {
+        double secs = (System.nanoTime() - resetTime) / 1e9;
+        return secs > 0 ? getCellsChanged() / secs : 0;
+    }
+    @Override public long getPaints() { return paint.count(); }
+    @Override public double getPaintMeanMicros() { return paint.mean() / 1e3; }
+    @Override public double getPaintP99Micros() { return paint.percentile(99) / 1e3; }
+    @Override public double getPaintMaxMicros() { return paint.max() / 1e3; }
+    @Override public long getInputs() { return toPaint.count(); }
+    @Override public double getInputP50Millis() { return toPaint.percentile(50) / 1e6; }
+    @Override public double getInputP99Millis() { return toPaint.percentile(99) / 1e6; }
+    @Override public double getInputQueueP99Millis() { return queue.percentile(99) / 1e6; }
+    @Override public double getInputDispatchP99Millis() { return dispatch.percentile(99) / 1e6; }
+    @Override public long getCharsDropped() { return backend.keyMgr.getDropped() - baseChars; }
+    @Override public long getMouseEventsDropped() {
+        MouseManager mgr = backend.mouseMgr;
+        return (mgr == null ? 0 : mgr.getDropped()) - baseMouse;
+    }
+
+    @Override
+    public synchronized void reset() {
+        baseRepaints = backend.grid.getRepaints();
+        baseCells = backend.grid.getCellsChanged();
+        baseChars = backend.keyMgr.getDropped();
+        MouseManager mgr = backend.mouseMgr;
+        baseMouse = mgr == null ? 0 : mgr.getDropped();
+        resetTime = System.nanoTime();
+        paint.reset();
+        dispatch.reset();
+        queue.reset();
+        toPaint.reset();
+        taken.set(0);
+        written.set(0);
+    }
+
+    public Stats stats() { return new Stats(this); }
+
+    /**
+     * Registers this object in the platform MBean server, replacing the previous console.
+     */
+    public synchronized void register() {
+        if (registered) return;
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(this, name);
+            registered = true;
+        } catch (Exception ex) {
+            System.out.println("Error registering metrics");
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Removes this object from the platform MBean server, if it is registered.
+     */
+    public synchronized void unregister() {
+        if (!registered) return;
+        registered = false;
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (Exception ignored) { }
+    }
+}
@@ -0,0 +1,38 @@
+package isel.leic.pg.console;
+
+/**
+ * Management interface of the console {@link Metrics}, registered as "isel.leic.pg:type=Console".
+ */
+public interface MetricsMXBean {
+    boolean isEnabled();
+
+    /**
+     * Turns on or off the measure of the paint times and of the input latencies. The counters are always kept.
+     */
+    void setEnabled(boolean on);
+
+    long getRepaints();
+    long getCellsChanged();
+    double getCellsPerSecond();
+    long getPaints();
+    double getPaintMeanMicros();
+    double getPaintP99Micros();
+    double getPaintMaxMicros();
+
+    /**
+     * Number of input events traced from the event until the paint of the cells written after it.
+     */
+    long getInputs();
+    double getInputP50Millis();
+    double getInputP99Millis();
+    double getInputQueueP99Millis();
+    double getInputDispatchP99Millis();
+
+    long getCharsDropped();
+    long getMouseEventsDropped();
+
+    /**
+     * Starts the counters and the latencies from zero.
+     */
+    void reset();
+}
@@ -5,72 +5,207 @@ import isel.leic.pg.concurrent.*;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class MouseManager implements MouseListener, MouseMotionListener {
+public class MouseManager extends ComponentAdapter implements MouseListener, MouseMotionListener {
     private static final int EVENTS_BUFFER_SIZE = 64;
-    private final RingBuffer<MouseEvent> events = new RingBuffer<>(EVENTS_BUFFER_SIZE,false);
+    private final SpscLongRingBuffer events = new SpscLongRingBuffer(EVENTS_BUFFER_SIZE);
 
-    private Frame frame;
+    /*
+     * The newest drag and the newest move are not stored in the buffer, but each in a single position,
+     * replaced by the next drag or move, so the motion never takes the space of the other events.
+     * Each is packed with the number of events stored in the buffer before it (16 bits), to be taken in the same order.
+     * A drag and a move are always separated by a DOWN or an UP; if not (injected events), the drag is taken first.
+     */
+    private static final long NO_MOTION = 0, MOTION_VALID = 1L << 63;
+    private final AtomicLong dragged = new AtomicLong(NO_MOTION);
+    private final AtomicLong moved = new AtomicLong(NO_MOTION);
+    private final boolean drag, moves;
 
-    MouseManager(Frame frame, boolean motion) {
+    private Frame frame;            // Source of the events, or null if they are injected
+    private final EventSignal signal;
+    private final Metrics metrics;
+
+    // Geometry of the cells, recomputed only when the layout changes
+    private boolean geometryValid = false;
+    private int top, left, cellWidth, cellHeight;
+
+    MouseManager(boolean drag, boolean move, EventSignal signal, Metrics metrics) {
+        this.signal = signal;
+        this.metrics = metrics;
+        this.drag = drag;
+        this.moves = move;
+    }
+
+    /**
+     * Listens the mouse events of the frame window.
+     */
+    void attach(Frame frame) {
         this.frame = frame;
-        frame.addMouseListener(this);
-        if (motion)
-            frame.addMouseMotionListener(this);
+        frame.window.addMouseListener(this);
+        if (drag || moves)
+            frame.window.addMouseMotionListener(this);
+        frame.window.addComponentListener(this);
     }
 
     void removeListeners() {
-        frame.removeMouseListener(this);
-        frame.removeMouseMotionListener(this);
+        if (frame==null) return;
+        frame.window.removeMouseListener(this);
+        frame.window.removeMouseMotionListener(this);
+        frame.window.removeComponentListener(this);
+    }
+
+    /*
+     * Each event is packed in a long: type in bits 32..39, line in bits 16..31 and column in bits 0..15.
+     * The events in the buffer (not the drags and moves) also have the time they arrived, in units of 1024 ns, in bits 40..62
+     * (it wraps around each 8.6 seconds).
+     */
+    private static final int STAMP_SHIFT = 10, STAMP_MASK = 0x7FFFFF;
+
+    static long pack(int type, int line, int col) {
+        return (long) type << 32 | (long) (line & 0xFFFF) << 16 | (col & 0xFFFF);
+    }
+
+    private static long stamp(long ev) {
+        return ev | (System.nanoTime() >>> STAMP_SHIFT & STAMP_MASK) << 40;
+    }
+
+    /**
+     * Time the event was stored, reconstructed from the 23 bits of the stamp.
+     */
+    private static long arrival(long ev) {
+        long now = System.nanoTime();
+        long elapsed = ((now >>> STAMP_SHIFT) - (ev >>> 40)) & STAMP_MASK;
+        return now - (elapsed << STAMP_SHIFT);
+    }
+    static int type(long ev) { return (int) (ev >>> 32) & 0xFF; }
+    static int line(long ev) { return (short) (ev >>> 16); }
+    static int col(long ev) { return (short) ev; }
+
+    /**
+     * Takes the next event, without waiting. Called only by the consumer thread.
+     * @return the packed event or SpscLongRingBuffer.NO_ELEM
+     */
+    long pollEvent() throws InterruptedException {
+        long d = dragged.get();
+        if (due(d) && dragged.compareAndSet(d, NO_MOTION))
+            return pack(MouseEvent.DRAG, line(d), col(d));
+        long m = moved.get();
+        if (due(m) && moved.compareAndSet(m, NO_MOTION))
+            return pack(MouseEvent.MOVE, line(m), col(m));
+        long ev = events.get(0);
+        if (ev == SpscLongRingBuffer.NO_ELEM) return ev;
+        metrics.inputTaken(arrival(ev));
+        return ev & ~(-1L << 40);
+    }
+
+    /**
+     * True if the drag or move was stored and all the events stored in the buffer before it were taken.
+     */
+    private boolean due(long motion) {
+        if (motion == NO_MOTION) return false;
+        int ahead = (int) (events.getCount() - (motion >>> 32)) & 0xFFFF;  // Events taken after the motion position
+        return ahead < 0x8000;
+    }
+
+    void clearEvents() {
+        events.clear();
+        dragged.set(NO_MOTION);
+        moved.set(NO_MOTION);
+    }
+    boolean isEmpty() { return events.isEmpty() && dragged.get() == NO_MOTION && moved.get() == NO_MOTION; }
+    long getDropped() { return events.getDropped(); }
+
+    @Override
+    public void componentResized(ComponentEvent e) { geometryValid = false; }
+
+    private void updateGeometry() {
+        Insets insets = frame.window.getInsets();
+        top = insets.top;
+        left = insets.left;
+        cellWidth = frame.getCellWidth();
+        cellHeight = frame.getCellHeight();
+        geometryValid = cellWidth > 0 && cellHeight > 0;
     }
 
-    MouseEvent getEvent(long timeout) throws InterruptedException {
-        return events.get(timeout);
+    private boolean geometry() {
+        if (!geometryValid) updateGeometry();
+        return geometryValid;
     }
 
-    void clearEvents() { events.clear(); }
-    boolean isEmpty() { return events.isEmpty(); }
+    private void putEvent(int type, java.awt.event.MouseEvent e) {
+        metrics.inputDispatched(e.getWhen());
+        if (!geometry()) return;
+        putEvent(type, (e.getY() - top) / cellHeight, (e.getX() - left) / cellWidth);
+    }
 
-    private int yToLine(int y) { return (y - frame.getInsets().top) / frame.getCellHeight();	}
-    private int xToCol(int x) { return (x - frame.getInsets().left) / frame.getCellWidth(); }
+    private void putEvent(int type, int line, int col) {
+        events.put( stamp(pack(type, line, col)) );
+        signal.post();
+    }
 
-    private MouseEvent translateEvent(int type, java.awt.event.MouseEvent e) {
-        Point point = e.getPoint();
-        return new MouseEvent(type, yToLine(point.y), xToCol(point.x) );
+    /**
+     * Stores an event produced without a window (ex: headless backend or terminal).
+     * The drags and moves are filtered as the events of the window.
+     */
+    void inject(int type, int line, int col) {
+        switch (type) {
+            case MouseEvent.DRAG: dragTo(line, col); break;
+            case MouseEvent.MOVE: moveTo(line, col); break;
+            default: putEvent(type, line, col);
+        }
     }
 
     @Override
     public void mouseClicked(java.awt.event.MouseEvent e) {
-        if (events==null) return;
-        events.put( translateEvent(MouseEvent.CLICK,e) );
+        putEvent(MouseEvent.CLICK, e);
     }
     @Override
     public void mousePressed(java.awt.event.MouseEvent e) {
-        if (events==null) return;
-        events.put( translateEvent(MouseEvent.DOWN,e) );
+        putEvent(MouseEvent.DOWN, e);
     }
     @Override
     public void mouseReleased(java.awt.event.MouseEvent e) {
-        if (events==null) return;
-        events.put( translateEvent(MouseEvent.UP,e) );
+        putEvent(MouseEvent.UP, e);
     }
 
-    private MouseEvent last = null;
+    private int dragLine = -1, dragCol = -1;    // Cell of the last drag event
+    private int moveLine = -1, moveCol = -1;    // Cell of the last move event
 
     @Override
     public void mouseDragged(java.awt.event.MouseEvent e) {
-        if (events==null) return;
-        Point point = e.getPoint();
-        int line = yToLine(point.y);
-        int col = xToCol(point.x);
-        if (last!=null && line==last.line && col==last.col)
+        if (geometry())
+            dragTo((e.getY() - top) / cellHeight, (e.getX() - left) / cellWidth);
+    }
+
+    private void dragTo(int line, int col) {
+        if (!drag || line==dragLine && col==dragCol)
             return;
-        last = new MouseEvent(MouseEvent.DRAG,line,col);
-        events.put( last );
+        dragLine = line;
+        dragCol = col;
+        dragged.set(motion(line, col));
+        signal.post();
     }
 
     @Override
-    public void mouseMoved(java.awt.event.MouseEvent e) { }
+    public void mouseMoved(java.awt.event.MouseEvent e) {
+        if (geometry())
+            moveTo((e.getY() - top) / cellHeight, (e.getX() - left) / cellWidth);
+    }
+
+    private void moveTo(int line, int col) {
+        if (!moves || line==moveLine && col==moveCol)
+            return;
+        moveLine = line;
+        moveCol = col;
+        moved.set(motion(line, col));
+        signal.post();
+    }
+
+    private long motion(int line, int col) {
+        return MOTION_VALID | (events.putCount() & 0xFFFF) << 32 | pack(0, line, col);
+    }
+
     @Override
     public void mouseEntered(java.awt.event.MouseEvent e) { }
     @Override
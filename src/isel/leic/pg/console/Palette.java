@@ -0,0 +1,44 @@
+package isel.leic.pg.console;
+
+import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of the colors used in the cells.
+ * <p>Each color gets a small index that is stored in the packed attributes of the cells (see {@link CharAttr}).</p>
+ */
+class Palette {
+    static final int MAX_COLORS = 0x10000;      // Indexes must fit in 16 bits
+
+    private final Map<Color,Integer> indexes = new HashMap<>();
+    private volatile Color[] colors = new Color[0]; // Replaced on growth to be read without locks
+
+    /**
+     * Gets the index of the color, adding it to the palette if needed.
+     * @param color the color
+     * @return the index of the color
+     */
+    synchronized int indexOf(Color color) {
+        Integer idx = indexes.get(color);
+        if (idx!=null) return idx;
+        int size = colors.length;
+        if (size==MAX_COLORS)
+            throw new IllegalStateException("Too many colors");
+        Color[] cs = new Color[size+1];
+        System.arraycopy(colors,0,cs,0,size);
+        cs[size] = color;
+        colors = cs;
+        indexes.put(color,size);
+        return size;
+    }
+
+    /**
+     * Gets the color of one index
+     * @param idx the index returned by indexOf()
+     * @return the color
+     */
+    Color color(int idx) {
+        return colors[idx];
+    }
+}
@@ -0,0 +1,34 @@
+package isel.leic.pg.console;
+
+/**
+ * The last lines that left the top of the console, kept in a ring with a fixed capacity.
+ * <p>When the ring is full, each line added replaces the oldest.</p>
+ */
+class Scrollback {
+    private final CellStore ring;
+    private int next = 0;       // Line of the ring where the next line is added
+    private int size = 0;       // Number of lines kept
+
+    Scrollback(int capacity, int cols) {
+        ring = new CellStore(capacity, cols, 0);
+    }
+
+    int size() { return size; }
+
+    /**
+     * Adds a copy of one line of the cells.
+     */
+    void add(CellStore src, int lin) {
+        ring.copyLine(src, lin, next);
+        if (++next == ring.lines) next = 0;
+        if (size < ring.lines) ++size;
+    }
+
+    /**
+     * Copies the line i (0 is the oldest) to a line of the cells, marking the cells changed.
+     */
+    void copyTo(int i, CellStore dst, int lin, DirtyRegion dirty) {
+        int l = next - size + i;
+        dst.copyLineChanged(ring, l < 0 ? l + ring.lines : l, lin, dirty);
+    }
+}
@@ -1,58 +1,137 @@
 package isel.leic.pg.console;
 
-import isel.leic.pg.console.CharAttr;
-
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 
+/**
+ * Swing component that shows the cells of a {@link CellGrid}.
+ * <p>The cells are painted in an image that keeps the cells shown. Each paint paints in the image only
+ * the cells changed and copies the image to the screen. A scroll moves the pixels of the image with
+ * <code>copyArea</code>, so only the lines exposed are painted. The scrolls of one batch of writes are
+ * added and the pixels are moved once, at the end of the batch; the region of the cells changed and not
+ * yet painted moves with them.</p>
+ * <p>The cells are painted only in the event dispatch thread, with the lock of the backend held,
+ * so a paint never shows a frame partially presented.</p>
+ */
 @SuppressWarnings("serial")
-class TextBox extends JComponent {
-
-	private final int lines, cols;
-    private final CharAttr[][] grid;
-	
-	TextBox(int lines, int cols, Color bCol, Color fCol, Font f) {
-		this.lines = lines;
-		this.cols = cols;
-    	grid = new CharAttr[lines][cols];
-    	for(int l=0 ; l<lines ; ++l) {
-    		for(int j=0 ; j<cols ; ++j)
-    		  	grid[l][j]= new CharAttr(bCol,fCol);
-    	}
+class TextBox extends JComponent implements DirtyRegion.Target {
+
+	private final CellGrid grid;
+	private final GridPainter painter;
+	private final Metrics metrics;
+	private final Object lock;							// Lock of the backend, held by the writers of the cells
+
+	// Used with the lock, by the event dispatch thread and by the writer of the cells
+	private BufferedImage image;						// Cells shown, or null before the first paint
+	private final Rectangle changed = new Rectangle();	// Region of the image to paint, in pixels
+	private int dx, dy;									// Size of each cell in the image
+	private int scrollLin, scrollHeight, scrollN;		// Scroll of the image not yet made, if scrollN != 0
+
+	TextBox(CellGrid grid, Font f, Metrics metrics, Object lock) {
+		this.grid = grid;
+		this.metrics = metrics;
+		this.lock = lock;
+		painter = new GridPainter(grid.palette, grid.cols);
     	setFont(f);
  	}
 
 	@Override
 	public void paint(Graphics g) {
-		Rectangle clip = g.getClipBounds();
-		int dx = getWidth() / cols;
-		int dy = getHeight() / lines;
-		int x, y = 0;
-		for(int l=0; l<lines ; ++l, y+=dy) {
-			x = 0;
-			for(int c=0; c<cols ; ++c , x+=dx)  
-				if (clip.intersects(x, y, dx, dy)) 
-					grid[l][c].paint(g,x,y,dx,dy);
+		long start = metrics.paintStart();
+		synchronized (lock) {
+			if (image==null || dx!=getWidth()/grid.cols || dy!=getHeight()/grid.lines)
+				newImage();
+			if (image!=null) {
+				moveImage();
+				paintChanged();
+				g.drawImage(image, 0, 0, null);
+			}
 		}
+		metrics.paintEnd(start);
 	}
 
-	void setChr(int lin, int col, char c) {
-		if (grid[lin][col].setChr(c))
-			repaintChar(lin, col);
+	private void newImage() {
+		dx = getWidth() / grid.cols;
+		dy = getHeight() / grid.lines;
+		if (dx<=0 || dy<=0) { image = null; return; }
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		int w = dx * grid.cols, h = dy * grid.lines;
+		image = gc!=null ? gc.createCompatibleImage(w, h) : new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		changed.setBounds(0, 0, w, h);
+		scrollN = 0;
 	}
 
-	private void repaintChar(int lin, int col) {
-		int dx = getWidth() / cols;
-		int dy = getHeight() / lines;
-		repaint(col*dx,lin*dy,dx,dy);
+	private void paintChanged() {
+		if (changed.isEmpty()) return;
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setFont(getFont());
+			g.setClip(changed);
+			painter.paint(g, grid.cells, changed, dx, dy, getGraphicsConfiguration());
+		} finally {
+			g.dispose();
+		}
+		changed.setSize(0, 0);
 	}
 
-	void setChr(int lin, int col, char c, Color b, Color f) {
-		if (grid[lin][col].setChr(c,b,f)) 
-			repaintChar(lin,col);
+	/**
+	 * Called with the lock held.
+	 */
+	@Override
+	public void repaintCells(int lin, int col, int height, int width) {
+		int cw = getWidth() / grid.cols;
+		int ch = getHeight() / grid.lines;
+		Rectangle r = new Rectangle(col*cw,lin*ch,width*cw,height*ch);
+		if (changed.isEmpty()) changed.setBounds(r);
+		else changed.add(r);
+		repaint(r);
 	}
 
-	char getChr(int lin, int col) {
-		return grid[lin][col].getChr();
+	/**
+	 * Called with the lock held, before the cells are moved.
+	 * Only adds the scroll to the scroll not yet made, if it is in the same region and direction.
+	 */
+	@Override
+	public boolean scrollCells(int lin, int height, int n) {
+		if (image==null || dx!=getWidth()/grid.cols || dy!=getHeight()/grid.lines)
+			return false;
+		if (scrollN!=0 && (lin!=scrollLin || height!=scrollHeight || (n>0)!=(scrollN>0)))
+			moveImage();
+		Rectangle region = new Rectangle(0, lin*dy, image.getWidth(), height*dy);
+		Rectangle moved = changed.intersection(region);		// The cells not yet painted move with the others
+		if (!moved.isEmpty()) {
+			moved.translate(0, -n*dy);
+			moved = moved.intersection(region);
+			if (!moved.isEmpty()) changed.add(moved);
+		}
+		scrollLin = lin;
+		scrollHeight = height;
+		scrollN += n;
+		return true;
+	}
+
+	/**
+	 * Called with the lock held, at the end of each batch of writes.
+	 */
+	@Override
+	public void flushed() { moveImage(); }
+
+	/**
+	 * Moves the pixels of the image by the scroll not yet made.
+	 */
+	private void moveImage() {
+		if (scrollN==0) return;
+		int dist = Math.abs(scrollN) * dy, y = scrollLin * dy, h = scrollHeight * dy;
+		if (dist < h) {		// Otherwise all the lines of the region were exposed
+			Graphics g = image.createGraphics();
+			try {
+				g.copyArea(0, scrollN > 0 ? y + dist : y, image.getWidth(), h - dist, 0, scrollN > 0 ? -dist : dist);
+			} finally {
+				g.dispose();
+			}
+		}
+		scrollN = 0;
+		repaint(0, y, image.getWidth(), h);
 	}
-}  
+}
@@ -0,0 +1,30 @@
+package isel.leic.pg.sound;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Output of the audio mixed by {@link SoftMixer}.
+ * @see LineSink
+ * @see MemorySink
+ */
+public interface AudioSink {
+    /**
+     * Prepares the output.
+     * @param format format of the bytes written
+     * @param bufferBytes size of the output buffer, in bytes
+     */
+    void open(AudioFormat format, int bufferBytes) throws LineUnavailableException;
+
+    /**
+     * Writes the bytes, blocking while the output buffer is full.
+     */
+    void write(byte[] buf, int off, int len);
+
+    /**
+     * @return number of bytes written that are not played yet
+     */
+    int queuedBytes();
+
+    void close();
+}
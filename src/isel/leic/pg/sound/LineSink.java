@@ -0,0 +1,30 @@
+package isel.leic.pg.sound;
+
+import javax.sound.sampled.*;
+
+/**
+ * Audio output to a {@link SourceDataLine} of the default mixer.
+ */
+public class LineSink implements AudioSink {
+    private SourceDataLine line;
+
+    @Override
+    public void open(AudioFormat format, int bufferBytes) throws LineUnavailableException {
+        line = AudioSystem.getSourceDataLine(format);
+        line.open(format, bufferBytes);
+        line.start();
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) { line.write(buf, off, len); }
+
+    @Override
+    public int queuedBytes() { return line.getBufferSize() - line.available(); }
+
+    @Override
+    public void close() {
+        line.stop();
+        line.flush();
+        line.close();
+    }
+}
@@ -0,0 +1,57 @@
+package isel.leic.pg.sound;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audio output to memory, without audio hardware.
+ * <p>Keeps the bytes written up to a maximum (0 to discard all, as a null output).
+ * If real time, each write waits the time needed to play the bytes written.</p>
+ */
+public class MemorySink implements AudioSink {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final int maxBytes;
+    private final boolean realTime;
+    private double nanosPerByte;
+    private long next;          // Time when the bytes written are played
+
+    /**
+     * @param maxBytes maximum number of bytes stored
+     * @param realTime true to consume the bytes at the rate of the format
+     */
+    public MemorySink(int maxBytes, boolean realTime) {
+        this.maxBytes = maxBytes;
+        this.realTime = realTime;
+    }
+
+    @Override
+    public void open(AudioFormat format, int bufferBytes) {
+        nanosPerByte = 1e9 / (format.getFrameRate() * format.getFrameSize());
+        next = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void write(byte[] buf, int off, int len) {
+        int n = Math.min(len, maxBytes - out.size());
+        if (n > 0) out.write(buf, off, n);
+        if (!realTime) return;
+        long now = System.nanoTime();
+        if (next < now) next = now;
+        LockSupport.parkNanos(next - now);
+        next += (long) (len * nanosPerByte);
+    }
+
+    @Override
+    public int queuedBytes() {
+        return realTime ? (int) (Math.max(next - System.nanoTime(), 0) / nanosPerByte) : 0;
+    }
+
+    @Override
+    public void close() { }
+
+    /**
+     * @return a copy of the bytes stored
+     */
+    public synchronized byte[] toByteArray() { return out.toByteArray(); }
+}
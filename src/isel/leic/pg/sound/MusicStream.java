@@ -0,0 +1,102 @@
+package isel.leic.pg.sound;
+
+import javax.sound.sampled.*;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Music played while it is decoded, in chunks of fixed size, by a background thread.
+ * <p>Only one chunk and the buffer of the line are in memory, whatever the length of the music.
+ * When the end is reached, the file is opened again and written to the same line, without a gap.</p>
+ */
+public class MusicStream {
+    public static final int CHUNK_BYTES = 16*1024;
+    public static final int BUFFER_MILLIS = 500;
+
+    private final String name;
+    private final boolean loop;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile SourceDataLine line;
+
+    private MusicStream(String name, boolean loop) {
+        this.name = name;
+        this.loop = loop;
+        thread = new Thread(this::run, "Music " + name);
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts to play the music.
+     * @param name file name of the music
+     * @param loop true to repeat it continuously
+     * @return the music playing
+     */
+    public static MusicStream start(String name, boolean loop) {
+        MusicStream m = new MusicStream(name, loop);
+        m.thread.start();
+        return m;
+    }
+
+    private void run() {
+        byte[] chunk = new byte[CHUNK_BYTES];
+        try {
+            long written;
+            do {
+                written = 0;
+                InputStream in = SoundLoader.open(name);
+                if (in == null) return;
+                try (AudioInputStream audio = Sound.pcm(AudioSystem.getAudioInputStream(in))) {
+                    if (line == null) open(audio.getFormat());
+                    int frame = audio.getFormat().getFrameSize();
+                    int len = chunk.length - chunk.length % frame;
+                    for (int n; running && (n = read(audio, chunk, len)) > 0; written += n)
+                        line.write(chunk, 0, n - n % frame);
+                }
+            } while (loop && running && written > 0);     // Without samples it would reopen the file forever
+            if (running) line.drain();
+        } catch (Exception ex) {
+            System.out.println("Error in music " + name);
+            System.out.println(ex.getMessage());
+        } finally {
+            if (line != null) line.close();
+        }
+    }
+
+    private void open(AudioFormat format) throws LineUnavailableException {
+        SourceDataLine l = AudioSystem.getSourceDataLine(format);
+        int frame = format.getFrameSize();
+        int bytes = (int) (format.getFrameRate() * BUFFER_MILLIS / 1000) * frame;
+        l.open(format, Math.max(bytes, CHUNK_BYTES - CHUNK_BYTES % frame));
+        l.start();
+        line = l;
+    }
+
+    /**
+     * Reads until the buffer is full or the end of the stream.
+     */
+    private static int read(AudioInputStream audio, byte[] buf, int len) throws IOException {
+        int total = 0;
+        for (int n; total < len && (n = audio.read(buf, total, len - total)) > 0; )
+            total += n;
+        return total;
+    }
+
+    /**
+     * @return true if the music is playing
+     */
+    public boolean isPlaying() { return running && thread.isAlive(); }
+
+    /**
+     * Stops the music and releases the line.
+     */
+    public void stop() {
+        running = false;
+        SourceDataLine l = line;
+        if (l != null) {
+            l.stop();
+            l.flush();          // Releases the thread blocked in write()
+        }
+        try { thread.join(1000); } catch (InterruptedException ignored) { }
+    }
+}
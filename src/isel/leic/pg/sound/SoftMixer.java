@@ -0,0 +1,231 @@
+package isel.leic.pg.sound;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Mixer of sounds in the process, writing all voices to one {@link AudioSink}.
+ * <p>The sounds are converted once to the mix format (44100 Hz, 16 bits, stereo).
+ * A thread with maximum priority mixes the active voices in chunks and writes them to the sink,
+ * whose small buffer defines the latency.</p>
+ * <p>The latency measured for each play is the time from the call of {@link #play(Sound)}
+ * to the write of its first samples, plus the time to play the bytes already queued in the sink.</p>
+ * <p>{@link #render(byte[])} mixes one chunk without the thread, to use with a {@link MemorySink}.</p>
+ */
+public class SoftMixer {
+    public static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+    public static final int MAX_VOICES = 32;
+    private static final int FRAME_BYTES = 4;
+
+    private static final class Voice {
+        short[] samples;        // Interleaved stereo
+        int pos;                // Next sample
+        long triggered;         // Time of play(), or 0 if the latency was already measured
+    }
+
+    private final Map<Sound,short[]> converted = new IdentityHashMap<>();
+    private final ArrayDeque<Voice> triggers = new ArrayDeque<>();     // Plays not yet mixed
+    private final Voice[] voices = new Voice[MAX_VOICES];               // Used only in the mix thread
+    private int active = 0;
+    private int[] mix = new int[0];
+
+    private AudioSink sink;
+    private Thread thread;
+    private volatile boolean running;
+    private int chunkBytes;
+
+    private volatile long lastLatency = 0;
+    private final Object latencyLock = new Object();    // Not this, used while the mix thread is joined
+    private long latencySum = 0, latencyCount = 0;
+
+    /**
+     * Starts the mix thread.
+     * @param sink the output
+     * @param bufferMillis size of the sink buffer in milliseconds. The chunks have a quarter of this time.
+     */
+    public void start(AudioSink sink, int bufferMillis) throws LineUnavailableException {
+        stop();
+        synchronized (this) {
+            open(sink, bufferMillis);
+        }
+    }
+
+    private void open(AudioSink sink, int bufferMillis) throws LineUnavailableException {
+        int bufferFrames = Math.max((int) (FORMAT.getFrameRate() * bufferMillis / 1000), 64);
+        sink.open(FORMAT, bufferFrames * FRAME_BYTES);
+        this.sink = sink;
+        chunkBytes = Math.max(bufferFrames / 4, 16) * FRAME_BYTES;
+        running = true;
+        AudioSink out = sink;
+        int bytes = chunkBytes;
+        thread = new Thread(() -> run(out, bytes), "SoftMixer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the mix thread and closes the sink.
+     */
+    public void stop() {
+        Thread t;
+        AudioSink s;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            t = thread;
+            s = sink;
+            thread = null;
+        }
+        try { t.join(); } catch (InterruptedException ignored) { }    // Without the lock, needed by the mix thread
+        s.close();
+    }
+
+    private void run(AudioSink out, int chunkBytes) {
+        byte[] chunk = new byte[chunkBytes];
+        while (running) {
+            render(chunk);
+            out.write(chunk, 0, chunk.length);
+        }
+    }
+
+    /**
+     * Converts a sound to the mix format, if it was not converted yet.
+     */
+    public void load(Sound sound) { samples(sound); }
+
+    private synchronized short[] samples(Sound sound) {
+        short[] s = converted.get(sound);
+        if (s == null)
+            converted.put(sound, s = convert(sound));
+        return s;
+    }
+
+    /**
+     * Starts one voice playing the sound. If all voices are playing, the oldest ends.
+     */
+    public void play(Sound sound) {
+        Voice v = new Voice();
+        v.samples = samples(sound);
+        v.triggered = System.nanoTime();
+        synchronized (triggers) { triggers.add(v); }
+    }
+
+    /**
+     * Mixes the next chunk of audio.
+     * @param out destination of the bytes in the mix format. The length should be a multiple of 4.
+     */
+    public void render(byte[] out) {
+        int n = out.length / 2;             // Number of samples
+        if (mix.length < n) mix = new int[n];
+        synchronized (triggers) {
+            for (Voice v; (v = triggers.poll()) != null; ) {
+                if (active == MAX_VOICES)
+                    remove(0);
+                voices[active++] = v;
+            }
+        }
+        java.util.Arrays.fill(mix, 0, n, 0);
+        long queuedNanos = sink != null ? (long) (sink.queuedBytes() / (FORMAT.getFrameRate() * FRAME_BYTES) * 1e9) : 0;
+        for (int i = 0; i < active; ) {
+            Voice v = voices[i];
+            int len = Math.min(n, v.samples.length - v.pos);
+            for (int j = 0; j < len; j++)
+                mix[j] += v.samples[v.pos + j];
+            v.pos += len;
+            if (v.triggered != 0) {
+                measured(System.nanoTime() - v.triggered + queuedNanos);
+                v.triggered = 0;
+            }
+            if (v.pos >= v.samples.length) remove(i);
+            else ++i;
+        }
+        for (int j = 0, b = 0; j < n; j++, b += 2) {
+            int s = mix[j];
+            if (s > Short.MAX_VALUE) s = Short.MAX_VALUE;
+            else if (s < Short.MIN_VALUE) s = Short.MIN_VALUE;
+            out[b] = (byte) s;
+            out[b+1] = (byte) (s >> 8);
+        }
+    }
+
+    private void remove(int i) {
+        System.arraycopy(voices, i+1, voices, i, active-i-1);
+        voices[--active] = null;
+    }
+
+    private void measured(long nanos) {
+        lastLatency = nanos;
+        synchronized (latencyLock) {
+            latencySum += nanos;
+            ++latencyCount;
+        }
+    }
+
+    /**
+     * @return the latency of the last play, in milliseconds
+     */
+    public double getLastLatencyMillis() { return lastLatency / 1e6; }
+
+    /**
+     * @return the average latency of all plays, in milliseconds
+     */
+    public double getAverageLatencyMillis() {
+        synchronized (latencyLock) {
+            return latencyCount == 0 ? 0 : latencySum / 1e6 / latencyCount;
+        }
+    }
+
+    /**
+     * Converts PCM samples of any size, integer or float, with any number of channels, at any rate, to the mix format.
+     * With more than 2 channels, only the first two (front left and right) are used.
+     * The rate is converted by linear interpolation.
+     */
+    static short[] convert(Sound sound) {
+        AudioFormat f = sound.format;
+        AudioFormat.Encoding enc = f.getEncoding();
+        int channels = f.getChannels(), bytes = (f.getSampleSizeInBits() + 7) / 8;
+        boolean floats = enc.equals(AudioFormat.Encoding.PCM_FLOAT);
+        if (channels < 1 || bytes < 1 || bytes > 8 || floats && bytes != 4 && bytes != 8
+                || !floats && !enc.equals(AudioFormat.Encoding.PCM_SIGNED) && !enc.equals(AudioFormat.Encoding.PCM_UNSIGNED))
+            throw new IllegalArgumentException("Unsupported format " + f);
+        boolean signed = enc.equals(AudioFormat.Encoding.PCM_SIGNED);
+        int frames = sound.frames(), frameSize = f.getFrameSize();
+        double step = f.getSampleRate() / FORMAT.getSampleRate();
+        int outFrames = (int) (frames / step);
+        short[] out = new short[outFrames * 2];
+        for (int i = 0; i < outFrames; i++) {
+            double src = i * step;
+            int f0 = (int) src;
+            int f1 = Math.min(f0 + 1, frames - 1);
+            double t = src - f0;
+            for (int c = 0; c < 2; c++) {
+                int at = Math.min(c, channels - 1) * bytes;
+                double s0 = sample(sound.data, f0 * frameSize + at, bytes, floats, signed, f.isBigEndian());
+                double s1 = sample(sound.data, f1 * frameSize + at, bytes, floats, signed, f.isBigEndian());
+                out[i*2 + c] = (short) Math.round(s0 + (s1 - s0) * t);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Reads one sample with the given number of bytes and returns it in the range of 16 bits signed.
+     */
+    private static int sample(byte[] data, int i, int bytes, boolean floats, boolean signed, boolean bigEndian) {
+        long v = 0;
+        for (int b = 0; b < bytes; b++)
+            v = v << 8 | data[bigEndian ? i + b : i + bytes - 1 - b] & 0xFF;
+        if (floats) {
+            double d = bytes == 4 ? Float.intBitsToFloat((int) v) : Double.longBitsToDouble(v);
+            return (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(d * Short.MAX_VALUE)));
+        }
+        int bits = bytes * 8;
+        if (signed) v = v << (64 - bits) >> (64 - bits);     // Extends the sign
+        else v -= 1L << (bits - 1);
+        return (int) (bits > 16 ? v >> (bits - 16) : v << (16 - bits));
+    }
+}
@@ -0,0 +1,52 @@
+package isel.leic.pg.sound;
+
+import javax.sound.sampled.*;
+import java.io.*;
+
+/**
+ * Sound decoded to PCM samples, ready to be played without reading or decoding again.
+ */
+public class Sound {
+    public final String name;
+    public final AudioFormat format;
+    public final byte[] data;
+
+    public Sound(String name, AudioFormat format, byte[] data) {
+        this.name = name;
+        this.format = format;
+        this.data = data;
+    }
+
+    /**
+     * Number of sample frames.
+     */
+    public int frames() { return data.length / format.getFrameSize(); }
+
+    /**
+     * Decodes all the audio of the stream to PCM.
+     * @param name name of the sound
+     * @param in stream with the audio file (ex: ".wav")
+     * @return the decoded sound
+     */
+    public static Sound decode(String name, InputStream in) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream audio = pcm(AudioSystem.getAudioInputStream(in))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[16*1024];
+            for (int n; (n = audio.read(buf)) > 0; )
+                out.write(buf, 0, n);
+            return new Sound(name, audio.getFormat(), out.toByteArray());
+        }
+    }
+
+    /**
+     * Converts the stream to signed PCM, if it has other encoding.
+     */
+    static AudioInputStream pcm(AudioInputStream audio) {
+        AudioFormat f = audio.getFormat();
+        AudioFormat.Encoding enc = f.getEncoding();
+        if (enc.equals(AudioFormat.Encoding.PCM_SIGNED) || enc.equals(AudioFormat.Encoding.PCM_UNSIGNED))
+            return audio;
+        AudioFormat target = new AudioFormat(f.getSampleRate(), 16, f.getChannels(), true, false);
+        return AudioSystem.getAudioInputStream(target, audio);
+    }
+}
@@ -0,0 +1,123 @@
+package isel.leic.pg.sound;
+
+import javax.sound.sampled.*;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Set of sounds loaded and decoded once, each one played by a small pool of reusable clips.
+ * <p>Each sound has at most <code>polyphony</code> clips. A clip that ends (STOP event) returns to the pool.
+ * If all the clips of a sound are playing, the oldest one is restarted. The STOP event of each restart
+ * is ignored, because the events are asynchronous and the clip may not be running yet when it arrives.</p>
+ */
+public class SoundBank {
+    public static final int DEFAULT_POLYPHONY = 4;
+
+    private static class Entry {
+        final Sound sound;
+        final ArrayDeque<Clip> idle = new ArrayDeque<>();
+        final ArrayDeque<Clip> playing = new ArrayDeque<>();    // The oldest first
+        final Map<Clip,Integer> restarts = new IdentityHashMap<>();  // STOP events to ignore in each clip
+        Entry(Sound sound) { this.sound = sound; }
+    }
+
+    private final Map<String,Entry> sounds = new HashMap<>();
+    private final int polyphony;
+
+    public SoundBank() { this(DEFAULT_POLYPHONY); }
+
+    /**
+     * @param polyphony maximum number of simultaneous plays of each sound
+     */
+    public SoundBank(int polyphony) {
+        if (polyphony < 1) throw new IllegalArgumentException("polyphony < 1");
+        this.polyphony = polyphony;
+    }
+
+    /**
+     * Loads and decodes a sound, if it is not loaded yet.
+     * @param name file name of the sound
+     * @return the sound or null if it can not be loaded
+     */
+    public synchronized Sound load(String name) {
+        Entry e = entry(name);
+        return e==null ? null : e.sound;
+    }
+
+    private Entry entry(String name) {
+        Entry e = sounds.get(name);
+        if (e == null) {
+            Sound sound = SoundLoader.load(name);
+            if (sound == null) return null;
+            sounds.put(name, e = new Entry(sound));
+        }
+        return e;
+    }
+
+    /**
+     * Plays a sound, loading it if needed.
+     * @param name file name of the sound
+     */
+    public synchronized void play(String name) {
+        Entry e = entry(name);
+        if (e == null) return;
+        Clip clip = e.idle.poll();
+        if (clip == null) {
+            if (e.playing.size() < polyphony)
+                clip = open(e);
+            else {                          // Restarts the oldest
+                clip = e.playing.poll();
+                e.restarts.merge(clip, 1, Integer::sum);
+                clip.stop();
+                clip.setFramePosition(0);
+            }
+            if (clip == null) return;
+        }
+        e.playing.add(clip);
+        clip.start();
+    }
+
+    private Clip open(Entry e) {
+        try {
+            Clip clip = AudioSystem.getClip();
+            clip.open(e.sound.format, e.sound.data, 0, e.sound.data.length);
+            clip.addLineListener(ev -> {
+                if (ev.getType() == LineEvent.Type.STOP)
+                    recycle(e, clip);
+            });
+            return clip;
+        } catch (LineUnavailableException | IllegalArgumentException ex) {
+            System.out.println("Error in sound " + e.sound.name);
+            System.out.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    private synchronized void recycle(Entry e, Clip clip) {
+        Integer skip = e.restarts.remove(clip);
+        if (skip != null) {                 // The STOP of a restart
+            if (skip > 1) e.restarts.put(clip, skip - 1);
+            return;
+        }
+        if (!e.playing.remove(clip))
+            return;                         // The bank was closed
+        clip.setFramePosition(0);
+        e.idle.push(clip);
+    }
+
+    /**
+     * Stops all the sounds and releases all the clips.
+     */
+    public synchronized void close() {
+        for (Entry e : sounds.values()) {
+            for (Clip c : e.playing) c.close();
+            for (Clip c : e.idle) c.close();
+            e.playing.clear();
+            e.idle.clear();
+            e.restarts.clear();
+        }
+        sounds.clear();
+    }
+}
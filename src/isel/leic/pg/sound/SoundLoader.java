@@ -0,0 +1,180 @@
+package isel.leic.pg.sound;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Finds the sound files and keeps the decoded samples in a cache of files.
+ * <p>The sounds are searched in the folder "sound" of the current folder and then in the class path.</p>
+ * <p>The cache has one file for each sound, identified by the path of the source and its modification time.
+ * The next loads of the same source map the cache file to memory and copy the samples,
+ * without parsing or decoding the original file. The samples are copied because the clips and the mixer
+ * need them in an array.</p>
+ * <p>The cache is in the folder ".consolePG/sounds" of the home of the user, created only with access to the user.</p>
+ */
+public class SoundLoader {
+    public static final String FOLDER = "sound";
+    private static final int MAGIC = 0x43504732;    // "CPG2", with the length of the source
+    private static final String SUFFIX = ".pcm";
+
+    private static volatile File cacheDir = new File(System.getProperty("user.home"), ".consolePG" + File.separator + "sounds");
+
+    private SoundLoader() { }
+
+    /**
+     * Changes the folder of the cache.
+     * @param dir the folder, created if needed, or null to not use the cache
+     */
+    public static void setCacheDir(File dir) { cacheDir = dir; }
+
+    public static File getCacheDir() { return cacheDir; }
+
+    /**
+     * Location of the file of a sound.
+     * @param name file name of the sound, with or without the extension ".wav"
+     * @return the location or null if the file does not exist
+     */
+    public static URL find(String name) {
+        if (name.indexOf('.')==-1)
+            name += ".wav";
+        File file = new File(FOLDER, name);
+        try {
+            if (file.isFile()) return file.toURI().toURL();
+        } catch (IOException ignored) { }
+        return ClassLoader.getSystemResource(FOLDER + '/' + name);
+    }
+
+    /**
+     * Opens the file of a sound.
+     * @param name file name of the sound, with or without the extension ".wav"
+     * @return a buffered stream or null if the file does not exist
+     */
+    static InputStream open(String name) {
+        URL url = find(name);
+        try {
+            if (url != null) return new BufferedInputStream(url.openStream());
+        } catch (IOException ignored) { }
+        System.out.println("Cant open file " + name);
+        return null;
+    }
+
+    /**
+     * Loads a sound from the cache or, if it is not there, decodes the file and stores it in the cache.
+     * @param name file name of the sound, with or without the extension ".wav"
+     * @return the sound or null if it can not be loaded
+     */
+    public static Sound load(String name) {
+        URL url = find(name);
+        if (url == null) {
+            System.out.println("Cant open file " + name);
+            return null;
+        }
+        try {
+            File file = "file".equals(url.getProtocol()) ? new File(url.toURI()) : null;
+            URLConnection con = file == null ? url.openConnection() : null;
+            long modified = file != null ? file.lastModified() : con.getLastModified();
+            long length = file != null ? file.length() : con.getContentLengthLong();   // A copy may keep the time
+            File dir = cacheDir;
+            String key = file != null ? file.getPath() : url.toExternalForm();
+            File cached = dir==null || modified==0 ? null : new File(dir, cacheName(key, modified, length));
+            if (cached != null && cached.isFile()) {
+                Sound s = readCache(cached, name, key, modified, length);
+                if (s != null) return s;
+            }
+            Sound s;
+            try (InputStream in = new BufferedInputStream(file != null ? new FileInputStream(file) : con.getInputStream())) {
+                s = Sound.decode(name, in);
+            }
+            if (cached != null) writeCache(cached, s, key, modified, length);
+            return s;
+        } catch (Exception ex) {
+            System.out.println("Error in sound " + name);
+            System.out.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    private static String cacheName(String key, long modified, long length) {
+        return prefix(key) + Long.toHexString(modified) + '-' + Long.toHexString(length) + SUFFIX;
+    }
+
+    private static String prefix(String key) {
+        return Integer.toHexString(key.hashCode()) + '-';
+    }
+
+    /*
+     * Cache file: MAGIC, key length, key (UTF-8), modified, source length, sample rate, bits, channels,
+     *             signed, big endian, data length, data
+     */
+
+    private static Sound readCache(File file, String name, String key, long modified, long length) {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (map.getInt() != MAGIC) return null;
+            byte[] k = new byte[map.getInt()];
+            map.get(k);
+            if (!key.equals(new String(k, StandardCharsets.UTF_8)) || map.getLong() != modified || map.getLong() != length)
+                return null;                // Other source with the same hash
+            float rate = map.getFloat();
+            int bits = map.getInt(), channels = map.getInt();
+            boolean signed = map.get() != 0, bigEndian = map.get() != 0;
+            byte[] data = new byte[map.getInt()];
+            map.get(data);
+            return new Sound(name, new AudioFormat(rate, bits, channels, signed, bigEndian), data);
+        } catch (IOException | RuntimeException ex) {
+            return null;                    // Invalid cache file is decoded again
+        }
+    }
+
+    private static void writeCache(File file, Sound s, String key, long modified, long length) {
+        File dir = file.getParentFile();
+        try {
+            createDir(dir.toPath());
+            byte[] k = key.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer head = ByteBuffer.allocate(4*3 + k.length + 8*2 + 4*3 + 2);
+            head.putInt(MAGIC).putInt(k.length).put(k).putLong(modified).putLong(length);
+            AudioFormat f = s.format;
+            head.putFloat(f.getSampleRate()).putInt(f.getSampleSizeInBits()).putInt(f.getChannels());
+            head.put((byte) (f.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED) ? 1 : 0));
+            head.put((byte) (f.isBigEndian() ? 1 : 0)).putInt(s.data.length);
+            head.flip();
+            Path tmp = Files.createTempFile(dir.toPath(), "tmp", SUFFIX);
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer data = ByteBuffer.wrap(s.data);
+                while (head.hasRemaining()) ch.write(head);
+                while (data.hasRemaining()) ch.write(data);
+            }
+            try {
+                Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {          // Not supported or other process wrote it
+                Files.deleteIfExists(tmp);
+                return;
+            }
+            removeOld(dir, prefix(key), file.getName());
+        } catch (IOException ignored) {
+            // Without cache the sound is decoded in the next load
+        }
+    }
+
+    private static void createDir(Path dir) throws IOException {
+        if (Files.isDirectory(dir)) return;
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        else
+            Files.createDirectories(dir);
+    }
+
+    private static void removeOld(File dir, String prefix, String current) {
+        File[] old = dir.listFiles((d, n) -> n.startsWith(prefix) && n.endsWith(SUFFIX) && !n.equals(current));
+        if (old != null)
+            for (File f : old) f.delete();
+    }
+}